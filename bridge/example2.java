@@ -0,0 +1,188 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+
+// Batching bridge. In the first example every Shape.draw() calls straight into
+// the DrawingAPI, which prints right away. Here draw() only appends a small
+// command to a CommandBuffer (plain int[] storage, no objects per command), and
+// once per frame the DrawingAPI gets the whole buffer and draws it in one pass.
+
+// Primitive draw command stream: each command is an opcode followed by its arguments
+class CommandBuffer {
+    static final int CIRCLE = 1;
+    static final int CIRCLE_SIZE = 4;
+
+    private int[] data = new int[1024];
+    private int size;
+
+    public void circle(int x, int y, int radius) {
+        if (size + CIRCLE_SIZE > data.length) {
+            data = Arrays.copyOf(data, data.length * 2);
+        }
+        data[size] = CIRCLE;
+        data[size + 1] = x;
+        data[size + 2] = y;
+        data[size + 3] = radius;
+        size += CIRCLE_SIZE;
+    }
+
+    public int[] data() {
+        return data;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Keeps the array so the next frame does not allocate
+    public void clear() {
+        size = 0;
+    }
+}
+
+// Implementation interface
+interface DrawingAPI {
+    void drawCircle(int x, int y, int radius);
+
+    // Consumes a whole frame. The default just decodes the commands one by one;
+    // backends override it to do the work in bulk.
+    default void drawFrame(CommandBuffer commands) {
+        int[] data = commands.data();
+        for (int i = 0; i < commands.size(); ) {
+            switch (data[i]) {
+                case CommandBuffer.CIRCLE:
+                    drawCircle(data[i + 1], data[i + 2], data[i + 3]);
+                    i += CommandBuffer.CIRCLE_SIZE;
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown draw command " + data[i]);
+            }
+        }
+    }
+}
+
+// Concrete implementation 1
+class DrawingAPI1 implements DrawingAPI {
+    private final PrintStream out;
+    private final StringBuilder frame = new StringBuilder();
+
+    DrawingAPI1(PrintStream out) {
+        this.out = out;
+    }
+
+    @Override
+    public void drawCircle(int x, int y, int radius) {
+        out.println("API1 - Drawing circle at " + x + ":" + y + " with radius " + radius);
+    }
+
+    // Formats the frame into one reused builder and writes it in large chunks
+    // instead of one synchronized println per circle
+    @Override
+    public void drawFrame(CommandBuffer commands) {
+        int[] data = commands.data();
+        for (int i = 0; i < commands.size(); ) {
+            switch (data[i]) {
+                case CommandBuffer.CIRCLE:
+                    frame.append("API1 - Drawing circle at ").append(data[i + 1]).append(':').append(data[i + 2])
+                            .append(" with radius ").append(data[i + 3]).append('\n');
+                    i += CommandBuffer.CIRCLE_SIZE;
+                    break;
+                default:
+                    frame.setLength(0);
+                    throw new IllegalStateException("Unknown draw command " + data[i]);
+            }
+            if (frame.length() >= 1 << 16) {
+                out.append(frame);
+                frame.setLength(0);
+            }
+        }
+        out.append(frame);
+        out.flush();
+        frame.setLength(0);
+    }
+}
+
+// Concrete implementation 2
+class DrawingAPI2 implements DrawingAPI {
+    private final PrintStream out;
+
+    DrawingAPI2(PrintStream out) {
+        this.out = out;
+    }
+
+    @Override
+    public void drawCircle(int x, int y, int radius) {
+        out.println("API2 - Drawing circle at " + x + ":" + y + " with radius " + radius);
+    }
+}
+
+// Abstraction
+abstract class Shape {
+    protected CommandBuffer commands;
+
+    protected Shape(CommandBuffer commands) {
+        this.commands = commands;
+    }
+
+    abstract void draw();
+}
+
+// Refined Abstraction
+class Circle extends Shape {
+    private int x, y, radius;
+
+    public Circle(int x, int y, int radius, CommandBuffer commands) {
+        super(commands);
+        this.x = x;
+        this.y = y;
+        this.radius = radius;
+    }
+
+    @Override
+    void draw() {
+        commands.circle(x, y, radius);
+    }
+}
+
+// Client code
+public class BatchedBridgeExample {
+    public static void main(String[] args) {
+        CommandBuffer frame = new CommandBuffer();
+        new Circle(1, 2, 3, frame).draw();
+        new Circle(4, 5, 6, frame).draw();
+
+        // The same frame can go to either backend
+        new DrawingAPI1(System.out).drawFrame(frame); // API1 - Drawing circle at 1:2 with radius 3 ...
+        new DrawingAPI2(System.out).drawFrame(frame); // API2 - Drawing circle at 1:2 with radius 3 ...
+        frame.clear();
+
+        // Benchmark: 1M circles per frame, output thrown away so only the drawing path is measured
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        PrintStream sink = new PrintStream(OutputStream.nullOutputStream());
+        DrawingAPI api = new DrawingAPI1(sink);
+        Circle[] circles = new Circle[count];
+        for (int i = 0; i < count; i++) {
+            circles[i] = new Circle(i % 1920, i % 1080, 1 + i % 50, frame);
+        }
+
+        for (int round = 0; round < 5; round++) {
+            long start = System.nanoTime();
+            // What the first example does: one synchronous backend call per circle
+            for (int i = 0; i < count; i++) {
+                api.drawCircle(i % 1920, i % 1080, 1 + i % 50);
+            }
+            long unbatched = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (Circle circle : circles) {
+                circle.draw();
+            }
+            api.drawFrame(frame);
+            frame.clear();
+            long batch = System.nanoTime() - start;
+
+            System.out.printf("round %d: one call per circle %.1f M draws/s, batched %.1f M draws/s%n",
+                    round, count * 1e3 / unbatched, count * 1e3 / batch);
+        }
+    }
+}
@@ -0,0 +1,280 @@
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
+// A DrawingAPI that really draws. Circles are filled into an int[] ARGB
+// framebuffer instead of being printed. drawCircle() only records the circle;
+// endFrame() splits the framebuffer into tiles and renders the tiles in
+// parallel on a ForkJoinPool. Each tile draws its circles in submission order,
+// so the picture is the same no matter how many threads are used.
+
+// Implementation interface
+interface DrawingAPI {
+    void drawCircle(int x, int y, int radius);
+}
+
+// Concrete implementation: software rasterizer
+class RasterDrawingAPI implements DrawingAPI {
+    static final int TILE = 128;
+
+    private final int width, height;
+    private final int[] pixels;
+    private final int tilesX, tilesY;
+    private final ForkJoinPool pool;
+
+    // Circles of the current frame: x, y, radius, color
+    private int[] circles = new int[4 * 1024];
+    private int circleCount;
+    private int color = 0xFFFFFFFF;
+
+    public RasterDrawingAPI(int width, int height, ForkJoinPool pool) {
+        this.width = width;
+        this.height = height;
+        this.pixels = new int[width * height];
+        this.tilesX = (width + TILE - 1) / TILE;
+        this.tilesY = (height + TILE - 1) / TILE;
+        this.pool = pool;
+    }
+
+    public void setColor(int argb) {
+        color = argb;
+    }
+
+    @Override
+    public void drawCircle(int x, int y, int radius) {
+        if (4 * circleCount + 4 > circles.length) {
+            circles = Arrays.copyOf(circles, circles.length * 2);
+        }
+        int i = 4 * circleCount++;
+        circles[i] = x;
+        circles[i + 1] = y;
+        circles[i + 2] = radius;
+        circles[i + 3] = color;
+    }
+
+    // Clears the framebuffer and renders every circle recorded since the last frame
+    public void endFrame() {
+        int[][] bins = binCirclesByTile();
+        pool.invoke(new TileTask(bins, 0, bins.length));
+        circleCount = 0;
+    }
+
+    public int[] pixels() {
+        return pixels;
+    }
+
+    public long checksum() {
+        long sum = 0;
+        for (int i = 0; i < pixels.length; i++) {
+            sum = sum * 31 + pixels[i];
+        }
+        return sum;
+    }
+
+    // For every tile, the indexes of the circles whose bounding box touches it.
+    // Slot 0 of each bin holds its length.
+    private int[][] binCirclesByTile() {
+        int[][] bins = new int[tilesX * tilesY][];
+        for (int c = 0; c < circleCount; c++) {
+            int x = circles[4 * c], y = circles[4 * c + 1], r = circles[4 * c + 2];
+            int tx0 = Math.max(0, (x - r) / TILE), tx1 = Math.min(tilesX - 1, (x + r) / TILE);
+            int ty0 = Math.max(0, (y - r) / TILE), ty1 = Math.min(tilesY - 1, (y + r) / TILE);
+            if (x + r < 0 || y + r < 0) {
+                continue;
+            }
+            for (int ty = ty0; ty <= ty1; ty++) {
+                for (int tx = tx0; tx <= tx1; tx++) {
+                    int t = ty * tilesX + tx;
+                    int[] bin = bins[t];
+                    if (bin == null) {
+                        bin = bins[t] = new int[8];
+                    } else if (bin[0] + 1 == bin.length) {
+                        bin = bins[t] = Arrays.copyOf(bin, bin.length * 2);
+                    }
+                    bin[++bin[0]] = c;
+                }
+            }
+        }
+        return bins;
+    }
+
+    private void renderTile(int tile, int[] bin) {
+        int left = (tile % tilesX) * TILE, top = (tile / tilesX) * TILE;
+        int right = Math.min(width, left + TILE), bottom = Math.min(height, top + TILE);
+        for (int py = top; py < bottom; py++) {
+            Arrays.fill(pixels, py * width + left, py * width + right, 0xFF000000);
+        }
+        if (bin == null) {
+            return;
+        }
+        for (int k = 1; k <= bin[0]; k++) {
+            int c = 4 * bin[k];
+            int cx = circles[c], cy = circles[c + 1], r = circles[c + 2], argb = circles[c + 3];
+            int y0 = Math.max(top, cy - r), y1 = Math.min(bottom - 1, cy + r);
+            // Span filling: one horizontal run per row instead of testing every pixel
+            for (int py = y0; py <= y1; py++) {
+                int dy = py - cy;
+                int half = (int) Math.sqrt((double) r * r - (double) dy * dy);
+                int x0 = Math.max(left, cx - half), x1 = Math.min(right - 1, cx + half);
+                if (x0 <= x1) {
+                    Arrays.fill(pixels, py * width + x0, py * width + x1 + 1, argb);
+                }
+            }
+        }
+    }
+
+    // Splits the tile range in half until it is small enough to render directly
+    @SuppressWarnings("serial")
+    private class TileTask extends RecursiveAction {
+        private final int[][] bins;
+        private final int from, to;
+
+        TileTask(int[][] bins, int from, int to) {
+            this.bins = bins;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= 4) {
+                for (int t = from; t < to; t++) {
+                    renderTile(t, bins[t]);
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new TileTask(bins, from, mid), new TileTask(bins, mid, to));
+        }
+    }
+}
+
+// Reference implementation: draws each circle straight into the whole
+// framebuffer on the calling thread, with no tiles or binning. The parallel
+// rasterizer must produce exactly the same pixels.
+class ReferenceDrawingAPI implements DrawingAPI {
+    private final int width, height;
+    private final int[] pixels;
+    private int color = 0xFFFFFFFF;
+
+    public ReferenceDrawingAPI(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.pixels = new int[width * height];
+        Arrays.fill(pixels, 0xFF000000);
+    }
+
+    public void setColor(int argb) {
+        color = argb;
+    }
+
+    @Override
+    public void drawCircle(int cx, int cy, int r) {
+        for (int py = Math.max(0, cy - r); py <= Math.min(height - 1, cy + r); py++) {
+            int dy = py - cy;
+            int half = (int) Math.sqrt((double) r * r - (double) dy * dy);
+            int x0 = Math.max(0, cx - half), x1 = Math.min(width - 1, cx + half);
+            if (x0 <= x1) {
+                Arrays.fill(pixels, py * width + x0, py * width + x1 + 1, color);
+            }
+        }
+    }
+
+    public int[] pixels() {
+        return pixels;
+    }
+}
+
+// Abstraction
+abstract class Shape {
+    protected DrawingAPI drawingAPI;
+
+    protected Shape(DrawingAPI drawingAPI) {
+        this.drawingAPI = drawingAPI;
+    }
+
+    abstract void draw();
+}
+
+// Refined Abstraction
+class Circle extends Shape {
+    private int x, y, radius;
+
+    public Circle(int x, int y, int radius, DrawingAPI drawingAPI) {
+        super(drawingAPI);
+        this.x = x;
+        this.y = y;
+        this.radius = radius;
+    }
+
+    @Override
+    void draw() {
+        drawingAPI.drawCircle(x, y, radius);
+    }
+}
+
+// Client code
+public class RasterBridgeExample {
+    static final int WIDTH = 3840, HEIGHT = 2160;
+
+    public static void main(String[] args) {
+        // A tiny frame drawn as text so the output can be checked by eye
+        RasterDrawingAPI small = new RasterDrawingAPI(16, 8, new ForkJoinPool(1));
+        new Circle(7, 4, 3, small).draw();
+        small.endFrame();
+        for (int y = 0; y < 8; y++) {
+            StringBuilder row = new StringBuilder();
+            for (int x = 0; x < 16; x++) {
+                row.append(small.pixels()[y * 16 + x] == 0xFF000000 ? '.' : '#');
+            }
+            System.out.println(row);
+        }
+
+        // Scaling at 4K: every thread count must draw exactly what the
+        // reference implementation draws, so a binning bug is caught even if
+        // it gives the same wrong picture on every thread count
+        int circles = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        int cores = Runtime.getRuntime().availableProcessors();
+        ReferenceDrawingAPI reference = new ReferenceDrawingAPI(WIDTH, HEIGHT);
+        drawScene(reference, reference::setColor, circles);
+        long expected = 0;
+        double baseline = 0;
+        for (int threads = 1; threads <= cores; threads = threads == cores ? cores + 1 : Math.min(cores, threads * 2)) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            RasterDrawingAPI api = new RasterDrawingAPI(WIDTH, HEIGHT, pool);
+            double best = Double.MAX_VALUE;
+            for (int round = 0; round < 5; round++) {
+                long start = System.nanoTime();
+                drawScene(api, api::setColor, circles);
+                api.endFrame();
+                best = Math.min(best, (System.nanoTime() - start) / 1e6);
+            }
+            if (!Arrays.equals(api.pixels(), reference.pixels())) {
+                throw new IllegalStateException("Frame with " + threads + " threads differs from the reference drawing");
+            }
+            long checksum = api.checksum();
+            if (threads == 1) {
+                expected = checksum;
+                baseline = best;
+            } else if (checksum != expected) {
+                throw new IllegalStateException("Checksum differs with " + threads + " threads");
+            }
+            System.out.printf("%2d threads: %7.2f ms per frame, speedup %.2fx, checksum %x%n",
+                    threads, best, baseline / best, checksum);
+            pool.shutdown();
+        }
+    }
+
+    static void drawScene(DrawingAPI api, IntConsumer setColor, int circles) {
+        long seed = 42;
+        for (int i = 0; i < circles; i++) {
+            seed = seed * 6364136223846793005L + 1442695040888963407L;
+            int x = (int) ((seed >>> 33) % WIDTH);
+            int y = (int) ((seed >>> 17) % HEIGHT);
+            int r = 4 + (int) ((seed >>> 5) % 60);
+            setColor.accept(0xFF000000 | (int) (seed >>> 40));
+            new Circle(x, y, r, api).draw();
+        }
+    }
+}
@@ -0,0 +1,195 @@
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+// Two rasterizer backends behind the same DrawingAPI: a scalar one that tests
+// one pixel at a time, and one that uses the Vector API to test and fill a
+// whole vector of pixels per instruction. The Vector API is still an incubator
+// module, so compile and run with:
+//
+//   javac --add-modules jdk.incubator.vector ...
+//   java  --add-modules jdk.incubator.vector VectorBridgeExample
+//
+// DrawingAPIs.fastest() only loads the vector backend when the module is
+// present and falls back to the scalar one otherwise.
+
+// Implementation interface
+interface DrawingAPI {
+    void drawCircle(int x, int y, int radius);
+
+    void setColor(int argb);
+
+    int[] pixels();
+}
+
+// Common framebuffer code
+abstract class RasterDrawingAPI implements DrawingAPI {
+    protected final int width, height;
+    protected final int[] pixels;
+    protected int color = 0xFFFFFFFF;
+
+    protected RasterDrawingAPI(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.pixels = new int[width * height];
+    }
+
+    @Override
+    public void setColor(int argb) {
+        color = argb;
+    }
+
+    @Override
+    public int[] pixels() {
+        return pixels;
+    }
+}
+
+// Concrete implementation 1: one pixel per step
+class ScalarDrawingAPI extends RasterDrawingAPI {
+    ScalarDrawingAPI(int width, int height) {
+        super(width, height);
+    }
+
+    @Override
+    public void drawCircle(int x, int y, int radius) {
+        int r2 = radius * radius;
+        int x0 = Math.max(0, x - radius), x1 = Math.min(width - 1, x + radius);
+        int y0 = Math.max(0, y - radius), y1 = Math.min(height - 1, y + radius);
+        for (int py = y0; py <= y1; py++) {
+            int dy2 = (py - y) * (py - y);
+            int row = py * width;
+            for (int px = x0; px <= x1; px++) {
+                int dx = px - x;
+                if (dx * dx + dy2 <= r2) {
+                    pixels[row + px] = color;
+                }
+            }
+        }
+    }
+}
+
+// Concrete implementation 2: SPECIES.length() pixels per step
+class VectorDrawingAPI extends RasterDrawingAPI {
+    private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+    private static final IntVector LANES = IntVector.zero(SPECIES).addIndex(1);
+
+    VectorDrawingAPI(int width, int height) {
+        super(width, height);
+    }
+
+    @Override
+    public void drawCircle(int x, int y, int radius) {
+        int r2 = radius * radius;
+        int x0 = Math.max(0, x - radius), x1 = Math.min(width - 1, x + radius);
+        int y0 = Math.max(0, y - radius), y1 = Math.min(height - 1, y + radius);
+        IntVector fill = IntVector.broadcast(SPECIES, color);
+        int step = SPECIES.length();
+        for (int py = y0; py <= y1; py++) {
+            int dy2 = (py - y) * (py - y);
+            int row = py * width;
+            int px = x0;
+            for (; px + step - 1 <= x1; px += step) {
+                IntVector dx = LANES.add(px - x);
+                VectorMask<Integer> inside = dx.mul(dx).add(dy2).compare(VectorOperators.LE, r2);
+                // Load, blend and store the whole vector; on JDK 17 this is much
+                // faster than a masked store, which is not always intrinsified
+                IntVector.fromArray(SPECIES, pixels, row + px).blend(fill, inside).intoArray(pixels, row + px);
+            }
+            // Pixels left over at the end of the row
+            for (; px <= x1; px++) {
+                int dx = px - x;
+                if (dx * dx + dy2 <= r2) {
+                    pixels[row + px] = color;
+                }
+            }
+        }
+    }
+}
+
+// Picks the best backend available at runtime
+class DrawingAPIs {
+    private DrawingAPIs() {
+    }
+
+    static boolean vectorApiAvailable() {
+        return ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+    }
+
+    static DrawingAPI fastest(int width, int height) {
+        if (vectorApiAvailable()) {
+            try {
+                // Loaded by name so the vector classes are never touched without the module
+                return (DrawingAPI) Class.forName("VectorDrawingAPI")
+                        .getDeclaredConstructor(int.class, int.class)
+                        .newInstance(width, height);
+            } catch (ReflectiveOperationException | LinkageError e) {
+                // fall through to the scalar backend
+            }
+        }
+        return new ScalarDrawingAPI(width, height);
+    }
+}
+
+// Abstraction
+abstract class Shape {
+    protected DrawingAPI drawingAPI;
+
+    protected Shape(DrawingAPI drawingAPI) {
+        this.drawingAPI = drawingAPI;
+    }
+
+    abstract void draw();
+}
+
+// Refined Abstraction
+class Circle extends Shape {
+    private int x, y, radius;
+
+    public Circle(int x, int y, int radius, DrawingAPI drawingAPI) {
+        super(drawingAPI);
+        this.x = x;
+        this.y = y;
+        this.radius = radius;
+    }
+
+    @Override
+    void draw() {
+        drawingAPI.drawCircle(x, y, radius);
+    }
+}
+
+// Client code
+public class VectorBridgeExample {
+    static final int WIDTH = 1920, HEIGHT = 1080;
+
+    public static void main(String[] args) {
+        DrawingAPI fastest = DrawingAPIs.fastest(WIDTH, HEIGHT);
+        System.out.println("Using " + fastest.getClass().getSimpleName());
+
+        int circles = args.length > 0 ? Integer.parseInt(args[0]) : 50_000;
+        DrawingAPI scalar = new ScalarDrawingAPI(WIDTH, HEIGHT);
+        for (int round = 0; round < 5; round++) {
+            double scalarMillis = drawBatch(scalar, circles);
+            double fastestMillis = drawBatch(fastest, circles);
+            System.out.printf("round %d: scalar %.1f ms, %s %.1f ms, speedup %.2fx%n", round,
+                    scalarMillis, fastest.getClass().getSimpleName(), fastestMillis, scalarMillis / fastestMillis);
+        }
+        if (!java.util.Arrays.equals(scalar.pixels(), fastest.pixels())) {
+            throw new IllegalStateException("Backends drew different pictures");
+        }
+        System.out.println("Both backends produced identical framebuffers");
+    }
+
+    static double drawBatch(DrawingAPI api, int circles) {
+        long seed = 7;
+        long start = System.nanoTime();
+        for (int i = 0; i < circles; i++) {
+            seed = seed * 6364136223846793005L + 1442695040888963407L;
+            api.setColor(0xFF000000 | (int) (seed >>> 40));
+            new Circle((int) ((seed >>> 33) % WIDTH), (int) ((seed >>> 17) % HEIGHT), 2 + (int) ((seed >>> 5) % 80), api).draw();
+        }
+        return (System.nanoTime() - start) / 1e6;
+    }
+}
@@ -0,0 +1,270 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// Parallel traversal of a composite. Composite.operation() visits its children
+// one after another, so a big tree with expensive leaves keeps only one core
+// busy. computeParallel() turns subtrees into RecursiveAction tasks, but only
+// subtrees with more than `threshold` nodes; smaller ones run sequentially in
+// the task that reached them, so the tasks stay big enough to pay off.
+//
+// Every node writes its result into a slot given by its pre-order position.
+// Callers who need the original order read the slots in order; callers who do
+// not can use operationParallelUnordered() and get output as it is produced.
+
+// Component interface
+interface Component {
+    void operation();
+
+    // Does the work of this node and returns its result
+    long compute();
+
+    // Number of nodes in this subtree, including this one
+    int size();
+}
+
+// Parent link shared by leaves and composites. Only Composite.add() sets it,
+// so it stays out of the public Component interface.
+abstract class Node implements Component {
+    Composite parent;
+}
+
+// Leaf class
+class Leaf extends Node {
+    private String name;
+    private final int work;
+
+    public Leaf(String name, int work) {
+        this.name = name;
+        this.work = work;
+    }
+
+    public Leaf(String name) {
+        this(name, 0);
+    }
+
+    @Override
+    public void operation() {
+        System.out.println("Leaf " + name + " - Operation");
+    }
+
+    // Stands in for an expensive leaf operation
+    @Override
+    public long compute() {
+        long x = name.hashCode();
+        for (int i = 0; i < work; i++) {
+            x = x * 6364136223846793005L + 1442695040888963407L;
+        }
+        return x;
+    }
+
+    @Override
+    public int size() {
+        return 1;
+    }
+}
+
+// Composite class
+class Composite extends Node {
+    private List<Component> children = new ArrayList<>();
+    private int size = 1;
+
+    // A node can have only one parent, and a composite cannot be added below
+    // itself; either would leave stale subtree sizes and break the slot layout
+    public void add(Node component) {
+        if (component.parent != null) {
+            throw new IllegalArgumentException("Component already has a parent");
+        }
+        for (Composite node = this; node != null; node = node.parent) {
+            if (node == component) {
+                throw new IllegalArgumentException("Adding a composite to its own subtree would create a cycle");
+            }
+        }
+        children.add(component);
+        component.parent = this;
+        // Keep subtree sizes up to date on the way to the root
+        for (Composite node = this; node != null; node = node.parent) {
+            node.size += component.size();
+        }
+    }
+
+    @Override
+    public void operation() {
+        System.out.println("Composite - Operation");
+        for (Component child : children) {
+            child.operation();
+        }
+    }
+
+    // A composite's result is the sum of its children's results
+    @Override
+    public long compute() {
+        long sum = 0;
+        for (Component child : children) {
+            sum += child.compute();
+        }
+        return sum;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    // Computes every node in parallel; results[i] belongs to the i-th node in pre-order
+    public long[] computeParallel(ForkJoinPool pool, int threshold) {
+        long[] results = new long[size];
+        pool.invoke(new Traversal(this, 0, results, threshold, null));
+        return results;
+    }
+
+    // Leaves print as soon as they are done, in whatever order that happens
+    public void operationParallelUnordered(ForkJoinPool pool, int threshold) {
+        pool.invoke(new Traversal(this, 0, new long[size], threshold, (leaf, result) -> leaf.operation()));
+    }
+
+    interface LeafListener {
+        void done(Leaf leaf, long result);
+    }
+
+    @SuppressWarnings("serial")
+    private static class Traversal extends RecursiveAction {
+        private final Component node;
+        private final int slot;
+        private final long[] results;
+        private final int threshold;
+        private final LeafListener listener;
+
+        Traversal(Component node, int slot, long[] results, int threshold, LeafListener listener) {
+            if (threshold <= 0) {
+                throw new IllegalArgumentException("threshold must be positive: " + threshold);
+            }
+            this.node = node;
+            this.slot = slot;
+            this.results = results;
+            this.threshold = threshold;
+            this.listener = listener;
+        }
+
+        @Override
+        protected void compute() {
+            if (node.size() <= threshold || !(node instanceof Composite)) {
+                sequential(node, slot);
+                return;
+            }
+            Composite composite = (Composite) node;
+            List<Traversal> tasks = new ArrayList<>(composite.children.size());
+            int childSlot = slot + 1;
+            for (Component child : composite.children) {
+                tasks.add(new Traversal(child, childSlot, results, threshold, listener));
+                childSlot += child.size();
+            }
+            invokeAll(tasks);
+            results[slot] = sumOfChildren(composite, slot);
+        }
+
+        private long sequential(Component node, int slot) {
+            if (node instanceof Composite) {
+                Composite composite = (Composite) node;
+                long sum = 0;
+                int childSlot = slot + 1;
+                for (Component child : composite.children) {
+                    sum += sequential(child, childSlot);
+                    childSlot += child.size();
+                }
+                results[slot] = sum;
+                return sum;
+            }
+            long result = node.compute();
+            results[slot] = result;
+            if (listener != null && node instanceof Leaf) {
+                listener.done((Leaf) node, result);
+            }
+            return result;
+        }
+
+        private long sumOfChildren(Composite composite, int slot) {
+            long sum = 0;
+            int childSlot = slot + 1;
+            for (Component child : composite.children) {
+                sum += results[childSlot];
+                childSlot += child.size();
+            }
+            return sum;
+        }
+    }
+}
+
+// Client code
+public class ParallelCompositeExample {
+    public static void main(String[] args) {
+        Composite composite = new Composite();
+        composite.add(new Leaf("1"));
+        composite.add(new Leaf("2"));
+        Composite composite2 = new Composite();
+        composite2.add(new Leaf("3"));
+        composite.add(composite2);
+
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+
+        // Ordered: results come back in the same order operation() visits the nodes
+        long[] results = composite.computeParallel(pool, 1);
+        System.out.println("Pre-order results: " + java.util.Arrays.toString(results));
+
+        // Unordered: leaves report as soon as they finish
+        composite.operationParallelUnordered(pool, 1);
+
+        // Moving a subtree, building a cycle or a threshold below 1 is rejected
+        Runnable[] invalid = { () -> composite.add(composite2), () -> composite2.add(composite),
+                () -> composite.computeParallel(pool, 0) };
+        for (Runnable bad : invalid) {
+            try {
+                bad.run();
+                throw new IllegalStateException("Invalid call was accepted");
+            } catch (IllegalArgumentException e) {
+                System.out.println("Rejected: " + e.getMessage());
+            }
+        }
+
+        // Benchmark: about 1M nodes, fan-out 10, depth 6
+        Composite root = build(6, 10, 200);
+        System.out.println("Tree with " + root.size() + " nodes");
+        long expected = root.compute();
+        double sequential = Double.MAX_VALUE;
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            root.compute();
+            sequential = Math.min(sequential, (System.nanoTime() - start) / 1e6);
+        }
+        System.out.printf("sequential: %.1f ms%n", sequential);
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; threads <= cores; threads = threads == cores ? cores + 1 : Math.min(cores, threads * 2)) {
+            ForkJoinPool workers = new ForkJoinPool(threads);
+            double best = Double.MAX_VALUE;
+            for (int round = 0; round < 3; round++) {
+                long start = System.nanoTime();
+                long[] all = root.computeParallel(workers, 10_000);
+                best = Math.min(best, (System.nanoTime() - start) / 1e6);
+                if (all[0] != expected) {
+                    throw new IllegalStateException("Parallel result differs from sequential");
+                }
+            }
+            System.out.printf("parallel, %2d threads: %.1f ms, speedup %.2fx%n", threads, best, sequential / best);
+            workers.shutdown();
+        }
+    }
+
+    static Composite build(int depth, int fanOut, int leafWork) {
+        Composite node = new Composite();
+        for (int i = 0; i < fanOut; i++) {
+            if (depth == 1) {
+                node.add(new Leaf("leaf" + i, leafWork));
+            } else {
+                node.add(build(depth - 1, fanOut, leafWork));
+            }
+        }
+        return node;
+    }
+}
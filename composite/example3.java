@@ -0,0 +1,224 @@
+import java.util.Arrays;
+
+// Flat composite tree. Instead of one heap object per Leaf and Composite with
+// an ArrayList of children, the whole tree lives in a few parallel arrays
+// indexed by node id:
+//
+//   parent[n]       parent of n, -1 for the root
+//   firstChild[n]   first child of n, -1 if none
+//   nextSibling[n]  next child of n's parent, -1 if n is the last one
+//   lastChild[n]    last child of n, so add() is O(1)
+//   kind[n]         LEAF or COMPOSITE
+//   value[n]        the node's payload, one column per field
+//
+// Traversals use an explicit walk over these links and never recurse, so a
+// deep tree cannot overflow the stack. A node costs 25 bytes, which puts a
+// 100M node tree at about 2.5 GB.
+
+class FlatTree {
+    static final byte LEAF = 0, COMPOSITE = 1;
+    static final int NONE = -1;
+
+    private int[] parent, firstChild, nextSibling, lastChild;
+    private byte[] kind;
+    private long[] value;
+    private int size;
+
+    public FlatTree(int capacity) {
+        parent = new int[capacity];
+        firstChild = new int[capacity];
+        nextSibling = new int[capacity];
+        lastChild = new int[capacity];
+        kind = new byte[capacity];
+        value = new long[capacity];
+    }
+
+    public int addRoot() {
+        return newNode(NONE, COMPOSITE, 0);
+    }
+
+    public int addComposite(int parentNode) {
+        return newNode(parentNode, COMPOSITE, 0);
+    }
+
+    public int addLeaf(int parentNode, long leafValue) {
+        return newNode(parentNode, LEAF, leafValue);
+    }
+
+    private int newNode(int parentNode, byte nodeKind, long nodeValue) {
+        if (parentNode != NONE && kind[parentNode] != COMPOSITE) {
+            throw new IllegalArgumentException("Node " + parentNode + " is a leaf");
+        }
+        if (size == kind.length) {
+            grow();
+        }
+        int node = size++;
+        parent[node] = parentNode;
+        firstChild[node] = NONE;
+        nextSibling[node] = NONE;
+        lastChild[node] = NONE;
+        kind[node] = nodeKind;
+        value[node] = nodeValue;
+        if (parentNode != NONE) {
+            if (firstChild[parentNode] == NONE) {
+                firstChild[parentNode] = node;
+            } else {
+                nextSibling[lastChild[parentNode]] = node;
+            }
+            lastChild[parentNode] = node;
+        }
+        return node;
+    }
+
+    private void grow() {
+        int capacity = Math.max(16, kind.length + (kind.length >> 1));
+        parent = Arrays.copyOf(parent, capacity);
+        firstChild = Arrays.copyOf(firstChild, capacity);
+        nextSibling = Arrays.copyOf(nextSibling, capacity);
+        lastChild = Arrays.copyOf(lastChild, capacity);
+        kind = Arrays.copyOf(kind, capacity);
+        value = Arrays.copyOf(value, capacity);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isLeaf(int node) {
+        return kind[node] == LEAF;
+    }
+
+    public long value(int node) {
+        return value[node];
+    }
+
+    public interface NodeVisitor {
+        void visit(int node);
+    }
+
+    // Parent before children, children in the order they were added
+    public void preOrder(int root, NodeVisitor visitor) {
+        int node = root;
+        while (node != NONE) {
+            visitor.visit(node);
+            node = nextPreOrder(root, node);
+        }
+    }
+
+    private int nextPreOrder(int root, int node) {
+        if (firstChild[node] != NONE) {
+            return firstChild[node];
+        }
+        while (node != root) {
+            if (nextSibling[node] != NONE) {
+                return nextSibling[node];
+            }
+            node = parent[node];
+        }
+        return NONE;
+    }
+
+    // Children before their parent
+    public void postOrder(int root, NodeVisitor visitor) {
+        int node = deepestFirst(root);
+        while (true) {
+            visitor.visit(node);
+            if (node == root) {
+                return;
+            }
+            node = nextSibling[node] != NONE ? deepestFirst(nextSibling[node]) : parent[node];
+        }
+    }
+
+    private int deepestFirst(int node) {
+        while (firstChild[node] != NONE) {
+            node = firstChild[node];
+        }
+        return node;
+    }
+
+    // Same as Composite.operation() in the first example, without recursion
+    public void operation(int root) {
+        preOrder(root, node -> {
+            if (isLeaf(node)) {
+                System.out.println("Leaf " + value[node] + " - Operation");
+            } else {
+                System.out.println("Composite - Operation");
+            }
+        });
+    }
+
+    // Sum of all leaf values under root, computed bottom-up in post-order
+    public long sum(int root) {
+        long[] total = new long[1];
+        postOrder(root, node -> {
+            if (isLeaf(node)) {
+                total[0] += value[node];
+            }
+        });
+        return total[0];
+    }
+}
+
+// Client code
+public class FlatCompositeExample {
+    public static void main(String[] args) {
+        FlatTree tree = new FlatTree(16);
+        int composite = tree.addRoot();
+        tree.addLeaf(composite, 1);
+        tree.addLeaf(composite, 2);
+        int composite2 = tree.addComposite(composite);
+        tree.addLeaf(composite2, 3);
+
+        tree.operation(composite);
+        /*
+        Output:
+        Composite - Operation
+        Leaf 1 - Operation
+        Leaf 2 - Operation
+        Composite - Operation
+        Leaf 3 - Operation
+        */
+
+        // A chain one million levels deep would overflow the stack with recursion
+        FlatTree deep = new FlatTree(1_000_001);
+        int node = deep.addRoot();
+        for (int i = 0; i < 1_000_000; i++) {
+            node = deep.addComposite(node);
+        }
+        deep.addLeaf(node, 42);
+        System.out.println("Deep tree sum: " + deep.sum(0));
+
+        // Big tree: pass the node count, e.g. 100000000 with -Xmx4g
+        int nodes = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        long before = runtime.totalMemory() - runtime.freeMemory();
+        long start = System.nanoTime();
+        FlatTree big = buildWide(nodes, 16);
+        long built = System.nanoTime();
+        long sum = big.sum(0);
+        long walked = System.nanoTime();
+        System.gc();
+        long bytes = runtime.totalMemory() - runtime.freeMemory() - before;
+        System.out.printf("%,d nodes: built in %d ms, post-order sum %d in %d ms, %.1f bytes per node%n",
+                big.size(), (built - start) / 1_000_000, sum, (walked - built) / 1_000_000, (double) bytes / big.size());
+    }
+
+    // Breadth-first tree where every composite gets fanOut children until `nodes` exist
+    static FlatTree buildWide(int nodes, int fanOut) {
+        FlatTree tree = new FlatTree(nodes);
+        tree.addRoot();
+        int leavesFrom = (nodes - 2) / fanOut + 1; // first node that gets no children
+        for (int next = 1, parent = 0; next < nodes; parent++) {
+            for (int c = 0; c < fanOut && next < nodes; c++, next++) {
+                if (next < leavesFrom) {
+                    tree.addComposite(parent);
+                } else {
+                    tree.addLeaf(parent, 1);
+                }
+            }
+        }
+        return tree;
+    }
+}
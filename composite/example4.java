@@ -0,0 +1,350 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+import java.util.function.ToLongFunction;
+
+// Composite with cached aggregates. Asking a composite for its total size or
+// leaf count normally walks the whole subtree. Here every Composite keeps the
+// value of each Aggregate it was created with, and every node knows its
+// parent. When a leaf changes or a child is added or removed, only the nodes
+// on the path to the root are updated. Queries read a cached value (O(1)) and
+// edits cost O(depth).
+//
+// An Aggregate is any associative reduction over the leaves. If it can also
+// take a part back out (sums, counts, averages built from sums), each node on
+// the path is updated by the difference. If it cannot (a maximum), each node on
+// the path recombines the cached values of its children instead, which costs
+// O(depth * fan-out). Either way the walk up stops at the first node whose
+// value did not change.
+
+// Associative reduction over leaves, with empty() as its identity
+interface Aggregate<V> {
+    V empty();
+
+    V ofLeaf(Leaf leaf);
+
+    V combine(V left, V right);
+
+    // Takes part back out of total, or returns null if the reduction cannot be
+    // undone; the node then recombines its children
+    default V subtract(V total, V part) {
+        return null;
+    }
+
+    static Aggregate<Long> sum(ToLongFunction<Leaf> value) {
+        return new Aggregate<>() {
+            @Override
+            public Long empty() {
+                return 0L;
+            }
+
+            @Override
+            public Long ofLeaf(Leaf leaf) {
+                return value.applyAsLong(leaf);
+            }
+
+            @Override
+            public Long combine(Long left, Long right) {
+                return left + right;
+            }
+
+            @Override
+            public Long subtract(Long total, Long part) {
+                return total - part;
+            }
+        };
+    }
+
+    static Aggregate<Long> max(ToLongFunction<Leaf> value) {
+        return new Aggregate<>() {
+            @Override
+            public Long empty() {
+                return Long.MIN_VALUE;
+            }
+
+            @Override
+            public Long ofLeaf(Leaf leaf) {
+                return value.applyAsLong(leaf);
+            }
+
+            @Override
+            public Long combine(Long left, Long right) {
+                return Math.max(left, right);
+            }
+        };
+    }
+
+    Aggregate<Long> TOTAL_SIZE = sum(Leaf::getSize);
+    Aggregate<Long> LEAF_COUNT = sum(leaf -> 1);
+}
+
+// Component interface
+interface Component {
+    void operation();
+
+    // The aggregate over this subtree; a Composite only answers the aggregates
+    // it was created with
+    <V> V value(Aggregate<V> aggregate);
+}
+
+// Parent link shared by leaves and composites. Only Composite.add() sets it,
+// so it stays out of the public Component interface.
+abstract class Node implements Component {
+    Composite parent;
+}
+
+// Leaf class
+class Leaf extends Node {
+    private String name;
+    private long size;
+
+    public Leaf(String name, long size) {
+        this.name = name;
+        this.size = size;
+    }
+
+    @Override
+    public void operation() {
+        System.out.println("Leaf " + name + " - Operation");
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public void setSize(long newSize) {
+        if (parent == null) {
+            size = newSize;
+            return;
+        }
+        Object[] before = parent.valuesOf(this);
+        size = newSize;
+        parent.childChanged(before, parent.valuesOf(this));
+    }
+
+    @Override
+    public <V> V value(Aggregate<V> aggregate) {
+        return aggregate.ofLeaf(this);
+    }
+}
+
+// Composite class
+class Composite extends Node {
+    private List<Component> children = new ArrayList<>();
+
+    // Every node of one tree maintains the same aggregates, in this order
+    private final List<Aggregate<?>> aggregates;
+    // Cached value of each aggregate over the whole subtree
+    private final Object[] values;
+
+    public Composite(List<Aggregate<?>> aggregates) {
+        this.aggregates = List.copyOf(aggregates);
+        this.values = new Object[this.aggregates.size()];
+        for (int k = 0; k < values.length; k++) {
+            values[k] = this.aggregates.get(k).empty();
+        }
+    }
+
+    public Composite() {
+        this(List.of(Aggregate.TOTAL_SIZE, Aggregate.LEAF_COUNT));
+    }
+
+    // A node can have only one parent, and a composite cannot be added below
+    // itself; either would make the cached values wrong or loop forever
+    public void add(Node component) {
+        if (component.parent != null) {
+            throw new IllegalArgumentException("Component already has a parent");
+        }
+        for (Composite node = this; node != null; node = node.parent) {
+            if (node == component) {
+                throw new IllegalArgumentException("Adding a composite to its own subtree would create a cycle");
+            }
+        }
+        if (component instanceof Composite && !((Composite) component).aggregates.equals(aggregates)) {
+            throw new IllegalArgumentException("Child composite maintains different aggregates");
+        }
+        children.add(component);
+        component.parent = this;
+        childChanged(empties(), valuesOf(component));
+    }
+
+    public void remove(Node component) {
+        if (component.parent != this) {
+            throw new IllegalArgumentException("Component is not a child of this composite");
+        }
+        Object[] before = valuesOf(component);
+        children.remove(component);
+        component.parent = null;
+        childChanged(before, empties());
+    }
+
+    // Replaces a child's contribution `before` with `after`, here and on every
+    // ancestor, one aggregate at a time
+    void childChanged(Object[] before, Object[] after) {
+        for (int k = 0; k < values.length; k++) {
+            Object oldPart = before[k], newPart = after[k];
+            for (Composite node = this; node != null && !Objects.equals(oldPart, newPart); node = node.parent) {
+                Object old = node.values[k];
+                node.values[k] = node.replace(k, old, oldPart, newPart);
+                oldPart = old;
+                newPart = node.values[k];
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Object replace(int k, Object value, Object oldPart, Object newPart) {
+        Aggregate<Object> aggregate = (Aggregate<Object>) aggregates.get(k);
+        Object rest = aggregate.subtract(value, oldPart);
+        if (rest != null) {
+            return aggregate.combine(rest, newPart);
+        }
+        Object recombined = aggregate.empty();
+        for (Component child : children) {
+            recombined = aggregate.combine(recombined, child.value(aggregate));
+        }
+        return recombined;
+    }
+
+    // The values of this tree's aggregates over one child
+    Object[] valuesOf(Component child) {
+        Object[] result = new Object[values.length];
+        for (int k = 0; k < result.length; k++) {
+            result[k] = child.value(aggregates.get(k));
+        }
+        return result;
+    }
+
+    private Object[] empties() {
+        Object[] result = new Object[values.length];
+        for (int k = 0; k < result.length; k++) {
+            result[k] = aggregates.get(k).empty();
+        }
+        return result;
+    }
+
+    @Override
+    public void operation() {
+        System.out.println("Composite - Operation (" + value(Aggregate.LEAF_COUNT) + " leaves, total size "
+                + value(Aggregate.TOTAL_SIZE) + ")");
+        for (Component child : children) {
+            child.operation();
+        }
+    }
+
+    @Override
+    public <V> V value(Aggregate<V> aggregate) {
+        for (int k = 0; k < values.length; k++) {
+            if (aggregates.get(k) == aggregate) {
+                @SuppressWarnings("unchecked")
+                V value = (V) values[k];
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Aggregate is not maintained by this composite");
+    }
+
+    // Walks the whole subtree; what every query cost without the cache
+    public long totalSizeUncached() {
+        long sum = 0;
+        for (Component child : children) {
+            sum += child instanceof Composite ? ((Composite) child).totalSizeUncached() : ((Leaf) child).getSize();
+        }
+        return sum;
+    }
+}
+
+// Client code
+public class CachedCompositeExample {
+    public static void main(String[] args) {
+        Leaf leaf1 = new Leaf("1", 10);
+        Leaf leaf2 = new Leaf("2", 20);
+        Leaf leaf3 = new Leaf("3", 30);
+
+        Composite composite = new Composite();
+        composite.add(leaf1);
+        composite.add(leaf2);
+
+        Composite composite2 = new Composite();
+        composite2.add(leaf3);
+
+        composite.add(composite2);
+        composite.operation(); // Composite - Operation (3 leaves, total size 60) ...
+
+        leaf3.setSize(35);
+        System.out.println("After editing leaf 3: " + composite.value(Aggregate.TOTAL_SIZE)); // 65
+
+        composite.remove(leaf2);
+        System.out.println("After removing leaf 2: " + composite.value(Aggregate.TOTAL_SIZE) + " in "
+                + composite.value(Aggregate.LEAF_COUNT) + " leaves"); // 45 in 2 leaves
+        composite.add(leaf2);
+
+        // Moving a node or building a cycle is rejected instead of corrupting the totals
+        for (Runnable bad : new Runnable[] { () -> composite2.add(leaf1), () -> composite2.add(composite) }) {
+            try {
+                bad.run();
+                throw new IllegalStateException("Invalid add was accepted");
+            } catch (IllegalArgumentException e) {
+                System.out.println("Rejected: " + e.getMessage());
+            }
+        }
+
+        // A maximum cannot be undone by a difference, so its path is recombined
+        Aggregate<Long> largest = Aggregate.max(Leaf::getSize);
+        List<Aggregate<?>> sums = List.of(Aggregate.TOTAL_SIZE, Aggregate.LEAF_COUNT);
+        List<Aggregate<?>> withMax = List.of(Aggregate.TOTAL_SIZE, Aggregate.LEAF_COUNT, largest);
+        Composite sizes = new Composite(withMax);
+        Leaf big = new Leaf("big", 90);
+        sizes.add(new Leaf("small", 5));
+        sizes.add(big);
+        System.out.println("Largest leaf: " + sizes.value(largest)); // 90
+        big.setSize(1);
+        System.out.println("Largest leaf after shrinking it: " + sizes.value(largest)); // 5
+
+        // Benchmark: ~1M node tree, every edit followed by a query on the root,
+        // first with the two sums, then also maintaining the maximum
+        for (List<Aggregate<?>> maintained : List.of(sums, withMax)) {
+            List<Leaf> leaves = new ArrayList<>();
+            Composite root = build(6, 10, leaves, maintained);
+            int edits = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+            Random random = new Random(1);
+
+            long start = System.nanoTime();
+            long check = 0;
+            for (int i = 0; i < edits; i++) {
+                leaves.get(random.nextInt(leaves.size())).setSize(random.nextInt(100));
+                check += root.value(Aggregate.TOTAL_SIZE);
+            }
+            double cached = (System.nanoTime() - start) / 1e3 / edits;
+
+            int uncachedEdits = Math.min(edits, 200);
+            start = System.nanoTime();
+            for (int i = 0; i < uncachedEdits; i++) {
+                leaves.get(random.nextInt(leaves.size())).setSize(random.nextInt(100));
+                check += root.totalSizeUncached();
+            }
+            double uncached = (System.nanoTime() - start) / 1e3 / uncachedEdits;
+
+            if (root.value(Aggregate.TOTAL_SIZE) != root.totalSizeUncached()) {
+                throw new IllegalStateException("Cached total is out of date");
+            }
+            System.out.printf("%d leaves, %d aggregates: edit + query %.3f us cached, %.1f us re-walking the tree (%d)%n",
+                    root.value(Aggregate.LEAF_COUNT), maintained.size(), cached, uncached, check & 1);
+        }
+    }
+
+    static Composite build(int depth, int fanOut, List<Leaf> leaves, List<Aggregate<?>> aggregates) {
+        Composite node = new Composite(aggregates);
+        for (int i = 0; i < fanOut; i++) {
+            if (depth == 1) {
+                Leaf leaf = new Leaf("leaf" + leaves.size(), 1);
+                leaves.add(leaf);
+                node.add(leaf);
+            } else {
+                node.add(build(depth - 1, fanOut, leaves, aggregates));
+            }
+        }
+        return node;
+    }
+}
@@ -1,3 +1,8 @@
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
 // Shape interface
 interface Shape {
     void draw();
@@ -26,21 +31,34 @@ class Rectangle implements Shape {
 }
 
 // Factory class to create objects of shapes
+// Shape types are looked up in a table instead of an if/else chain, so every
+// lookup costs one hash no matter how many types are registered, and new types
+// can be added with register() without changing this class.
 class ShapeFactory {
+    private final Map<String, Supplier<Shape>> registry = new ConcurrentHashMap<>();
+
+    public ShapeFactory() {
+        register("CIRCLE", Circle::new);
+        register("SQUARE", Square::new);
+        register("RECTANGLE", Rectangle::new);
+    }
+
+    public void register(String shapeType, Supplier<Shape> constructor) {
+        registry.put(normalize(shapeType), constructor);
+    }
+
     public Shape createShape(String shapeType) {
         if (shapeType == null) {
             return null;
         }
 
-        if (shapeType.equalsIgnoreCase("CIRCLE")) {
-            return new Circle();
-        } else if (shapeType.equalsIgnoreCase("SQUARE")) {
-            return new Square();
-        } else if (shapeType.equalsIgnoreCase("RECTANGLE")) {
-            return new Rectangle();
-        }
+        Supplier<Shape> constructor = registry.get(normalize(shapeType));
+        return constructor == null ? null : constructor.get();
+    }
 
-        return null;
+    // Keys are stored upper case; toUpperCase returns the same string when it is already upper case
+    private static String normalize(String shapeType) {
+        return shapeType.toUpperCase(Locale.ROOT);
     }
 }
 
@@ -58,5 +76,36 @@ public class Main {
 
         Shape rectangle = shapeFactory.createShape("RECTANGLE");
         rectangle.draw(); // Output: Drawing Rectangle
+
+        // New types are registered at startup, the factory itself does not change
+        shapeFactory.register("triangle", () -> () -> System.out.println("Drawing Triangle"));
+        shapeFactory.createShape("Triangle").draw(); // Output: Drawing Triangle
+
+        benchmark(3);
+        benchmark(300);
+    }
+
+    // Measures createShape with the given number of registered types, always
+    // asking for the last one registered (the worst case for an if/else chain)
+    static void benchmark(int types) {
+        ShapeFactory factory = new ShapeFactory();
+        String last = "RECTANGLE";
+        for (int i = 3; i < types; i++) {
+            last = "SHAPE" + i;
+            factory.register(last, Circle::new);
+        }
+
+        int calls = 10_000_000;
+        long sink = 0;
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < calls; i++) {
+                sink += factory.createShape(last) == null ? 0 : 1;
+            }
+            double nanos = (System.nanoTime() - start) / (double) calls;
+            if (round == 2) {
+                System.out.printf("%d types: %.1f ns per createShape (%d shapes)%n", types, nanos, sink);
+            }
+        }
     }
 }
@@ -0,0 +1,237 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.lang.reflect.Constructor;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.annotation.processing.SupportedSourceVersion;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.TypeElement;
+import javax.tools.StandardLocation;
+
+// A factory whose shapes are plugins. Like ServiceLoader, plugins are found
+// through a file under META-INF, but the file is written at build time by an
+// annotation processor, so startup never scans the classpath. The registry
+// only reads that small index; a plugin class is loaded the first time its
+// shape is created.
+
+// Shape interface
+interface Shape {
+    void draw();
+}
+
+// Put this on a Shape class to make it a plugin; the value is the shape type name
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.TYPE)
+@interface ShapePlugin {
+    String value();
+}
+
+// Plugins
+@ShapePlugin("circle")
+class Circle implements Shape {
+    @Override
+    public void draw() {
+        System.out.println("Drawing Circle");
+    }
+}
+
+@ShapePlugin("square")
+class Square implements Shape {
+    @Override
+    public void draw() {
+        System.out.println("Drawing Square");
+    }
+}
+
+@ShapePlugin("rectangle")
+class Rectangle implements Shape {
+    @Override
+    public void draw() {
+        System.out.println("Drawing Rectangle");
+    }
+}
+
+// Runs inside javac (javac -processor ShapeIndexProcessor ...) and writes one
+// "type=class" line per @ShapePlugin class to META-INF/shape-plugins.idx
+@SupportedAnnotationTypes("ShapePlugin")
+@SupportedSourceVersion(SourceVersion.RELEASE_17)
+public class ShapeIndexProcessor extends AbstractProcessor {
+    private final Map<String, String> index = new TreeMap<>();
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment round) {
+        for (Element element : round.getElementsAnnotatedWith(ShapePlugin.class)) {
+            String type = element.getAnnotation(ShapePlugin.class).value();
+            String className = processingEnv.getElementUtils().getBinaryName((TypeElement) element).toString();
+            index.put(type.toUpperCase(Locale.ROOT), className);
+        }
+        if (round.processingOver() && !index.isEmpty()) {
+            try (Writer out = processingEnv.getFiler()
+                    .createResource(StandardLocation.CLASS_OUTPUT, "", ShapeRegistry.INDEX).openWriter()) {
+                for (Map.Entry<String, String> entry : index.entrySet()) {
+                    out.write(entry.getKey() + "=" + entry.getValue() + "\n");
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return true;
+    }
+}
+
+// Factory backed by the build-time index
+class ShapeRegistry {
+    static final String INDEX = "META-INF/shape-plugins.idx";
+
+    private final ClassLoader loader;
+    private final Map<String, Supplier<Shape>> registry = new ConcurrentHashMap<>();
+
+    private ShapeRegistry(ClassLoader loader) {
+        this.loader = loader;
+    }
+
+    // Reads every index on the classpath, so plugin jars can each bring their own
+    public static ShapeRegistry load(ClassLoader loader) {
+        ShapeRegistry shapeRegistry = new ShapeRegistry(loader);
+        try {
+            for (var urls = loader.getResources(INDEX); urls.hasMoreElements(); ) {
+                try (InputStream in = urls.nextElement().openStream()) {
+                    shapeRegistry.readIndex(new InputStreamReader(in, StandardCharsets.UTF_8));
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read " + INDEX, e);
+        }
+        return shapeRegistry;
+    }
+
+    public static ShapeRegistry fromIndex(Reader index, ClassLoader loader) {
+        ShapeRegistry shapeRegistry = new ShapeRegistry(loader);
+        try {
+            shapeRegistry.readIndex(index);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return shapeRegistry;
+    }
+
+    private void readIndex(Reader index) throws IOException {
+        BufferedReader lines = new BufferedReader(index);
+        for (String line = lines.readLine(); line != null; line = lines.readLine()) {
+            int eq = line.indexOf('=');
+            if (eq > 0) {
+                String type = line.substring(0, eq).trim();
+                registry.putIfAbsent(type.toUpperCase(Locale.ROOT), new LazyConstructor(line.substring(eq + 1).trim()));
+            }
+        }
+    }
+
+    public Shape createShape(String shapeType) {
+        if (shapeType == null) {
+            return null;
+        }
+
+        Supplier<Shape> constructor = registry.get(shapeType.toUpperCase(Locale.ROOT));
+        return constructor == null ? null : constructor.get();
+    }
+
+    public int size() {
+        return registry.size();
+    }
+
+    // Loads the plugin class and looks up its constructor on first use only
+    private class LazyConstructor implements Supplier<Shape> {
+        private final String className;
+        private volatile Constructor<? extends Shape> constructor;
+
+        LazyConstructor(String className) {
+            this.className = className;
+        }
+
+        @Override
+        public Shape get() {
+            try {
+                Constructor<? extends Shape> c = constructor;
+                if (c == null) {
+                    c = Class.forName(className, true, loader).asSubclass(Shape.class).getDeclaredConstructor();
+                    constructor = c;
+                }
+                return c.newInstance();
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("Cannot create shape plugin " + className, e);
+            }
+        }
+    }
+}
+
+// Usage of the plugin registry
+public class PluginFactoryExample {
+    public static void main(String[] args) throws IOException, InterruptedException {
+        ClassLoader loader = PluginFactoryExample.class.getClassLoader();
+        if (args.length == 2 && args[0].equals("--cold")) {
+            coldStart(Integer.parseInt(args[1]), loader);
+            return;
+        }
+
+        // Normally the index comes from the jar; without the processor on the
+        // build we hand it the same content directly
+        ShapeRegistry shapes = ShapeRegistry.load(loader);
+        if (shapes.size() == 0) {
+            shapes = ShapeRegistry.fromIndex(new StringReader(index(0)), loader);
+        }
+        shapes.createShape("circle").draw();    // Output: Drawing Circle
+        shapes.createShape("SQUARE").draw();    // Output: Drawing Square
+        shapes.createShape("Rectangle").draw(); // Output: Drawing Rectangle
+
+        // Cold start: every size runs in a fresh JVM, where neither the
+        // registry nor Circle has been loaded yet
+        String java = ProcessHandle.current().info().command().orElse("java");
+        for (int plugins : new int[] { 3, 300, 3000 }) {
+            long start = System.nanoTime();
+            Process child = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                    PluginFactoryExample.class.getName(), "--cold", String.valueOf(plugins)).inheritIO().start();
+            if (child.waitFor() != 0) {
+                throw new IllegalStateException("Cold start run failed for " + plugins + " plugins");
+            }
+            System.out.printf("%d plugins: %.1f ms for the whole JVM run%n", plugins, (System.nanoTime() - start) / 1e6);
+        }
+    }
+
+    // Runs in the fresh JVM: time from reading the index to the first created shape
+    static void coldStart(int plugins, ClassLoader loader) {
+        String index = index(plugins - 3);
+        long start = System.nanoTime();
+        ShapeRegistry registry = ShapeRegistry.fromIndex(new StringReader(index), loader);
+        registry.createShape("circle");
+        System.out.printf("%d plugins: %.3f ms from reading the index to the first createShape%n",
+                registry.size(), (System.nanoTime() - start) / 1e6);
+    }
+
+    // The three real plugins plus some extra entries that are never loaded
+    static String index(int extraPlugins) {
+        StringBuilder index = new StringBuilder("CIRCLE=Circle\nSQUARE=Square\nRECTANGLE=Rectangle\n");
+        for (int i = 0; i < extraPlugins; i++) {
+            index.append("SHAPE").append(i).append("=com.example.shapes.Shape").append(i).append('\n');
+        }
+        return index.toString();
+    }
+}
@@ -0,0 +1,302 @@
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayDeque;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+// Pooled mode for the shape factory. A rendering loop that creates and throws
+// away millions of shapes keeps the garbage collector busy. In pooled mode the
+// factory hands out recycled objects from a per-thread pool; the caller gives
+// them back with release(), and reset() clears them before they are reused.
+// Prototype cloning goes through the same pool.
+//
+// Pooling removes the allocation and the collections, not necessarily time:
+// for objects this small, a young-generation allocation is cheaper than the
+// thread-local free list, so the benchmark reports both. It pays off when
+// objects are expensive to construct or GC pauses matter more than throughput.
+
+// Shape interface
+interface Shape {
+    void draw();
+
+    // Clears the state so a pooled object looks freshly constructed
+    void reset();
+
+    // Copies the state of another shape of the same type into this one
+    void copyFrom(Shape other);
+}
+
+// Base class for shapes that can be pooled. The flag is set while the object
+// sits in a pool, so releasing it twice is caught instead of handing the same
+// object to two callers later.
+abstract class PooledShape implements Shape {
+    boolean released;
+}
+
+// Concrete implementations of Shape interface
+class Circle extends PooledShape {
+    int x, y, radius;
+
+    @Override
+    public void draw() {
+        System.out.println("Drawing Circle at " + x + ":" + y + " with radius " + radius);
+    }
+
+    @Override
+    public void reset() {
+        x = y = radius = 0;
+    }
+
+    @Override
+    public void copyFrom(Shape other) {
+        Circle circle = (Circle) other;
+        x = circle.x;
+        y = circle.y;
+        radius = circle.radius;
+    }
+}
+
+class Square extends PooledShape {
+    int x, y, side;
+
+    @Override
+    public void draw() {
+        System.out.println("Drawing Square at " + x + ":" + y + " with side " + side);
+    }
+
+    @Override
+    public void reset() {
+        x = y = side = 0;
+    }
+
+    @Override
+    public void copyFrom(Shape other) {
+        Square square = (Square) other;
+        x = square.x;
+        y = square.y;
+        side = square.side;
+    }
+}
+
+class Rectangle extends PooledShape {
+    int x, y, width, height;
+
+    @Override
+    public void draw() {
+        System.out.println("Drawing Rectangle at " + x + ":" + y + " with size " + width + "x" + height);
+    }
+
+    @Override
+    public void reset() {
+        x = y = width = height = 0;
+    }
+
+    @Override
+    public void copyFrom(Shape other) {
+        Rectangle rectangle = (Rectangle) other;
+        x = rectangle.x;
+        y = rectangle.y;
+        width = rectangle.width;
+        height = rectangle.height;
+    }
+}
+
+// Free list for one shape type, one per thread so no locking is needed
+class ShapePool {
+    private final Supplier<Shape> constructor;
+    private final int maxIdle;
+    private final ThreadLocal<ArrayDeque<Shape>> idle = ThreadLocal.withInitial(ArrayDeque::new);
+
+    ShapePool(Supplier<Shape> constructor, int maxIdle) {
+        this.constructor = constructor;
+        this.maxIdle = maxIdle;
+    }
+
+    Shape acquire() {
+        PooledShape shape = (PooledShape) idle.get().pollFirst();
+        if (shape == null) {
+            return constructor.get();
+        }
+        shape.released = false;
+        return shape;
+    }
+
+    void release(Shape shape) {
+        PooledShape pooled = (PooledShape) shape;
+        if (pooled.released) {
+            throw new IllegalStateException(shape.getClass().getSimpleName() + " was already released");
+        }
+        pooled.released = true;
+        shape.reset();
+        ArrayDeque<Shape> free = idle.get();
+        if (free.size() < maxIdle) {
+            free.addFirst(shape);
+        }
+    }
+}
+
+// Factory class to create objects of shapes
+class ShapeFactory {
+    private final Map<String, Supplier<Shape>> registry = new ConcurrentHashMap<>();
+    private final Map<Class<?>, Supplier<Shape>> constructorsByClass = new ConcurrentHashMap<>();
+    private final Map<String, ShapePool> poolsByType = new ConcurrentHashMap<>();
+    private final Map<Class<?>, ShapePool> poolsByClass = new ConcurrentHashMap<>();
+    private final boolean pooled;
+    private final int maxIdlePerThread;
+
+    // pooled = false behaves like a normal factory and release() does nothing
+    public ShapeFactory(boolean pooled, int maxIdlePerThread) {
+        this.pooled = pooled;
+        this.maxIdlePerThread = maxIdlePerThread;
+        register("CIRCLE", Circle::new);
+        register("SQUARE", Square::new);
+        register("RECTANGLE", Rectangle::new);
+    }
+
+    public ShapeFactory(boolean pooled) {
+        this(pooled, 1024);
+    }
+
+    public void register(String shapeType, Supplier<Shape> constructor) {
+        String key = shapeType.toUpperCase(Locale.ROOT);
+        registry.put(key, constructor);
+        Shape sample = constructor.get();
+        constructorsByClass.put(sample.getClass(), constructor);
+        if (pooled) {
+            if (!(sample instanceof PooledShape)) {
+                throw new IllegalArgumentException(shapeType + " must extend PooledShape to be pooled");
+            }
+            ShapePool pool = new ShapePool(constructor, maxIdlePerThread);
+            poolsByType.put(key, pool);
+            poolsByClass.put(sample.getClass(), pool);
+        }
+    }
+
+    public Shape createShape(String shapeType) {
+        if (shapeType == null) {
+            return null;
+        }
+
+        String key = shapeType.toUpperCase(Locale.ROOT);
+        if (pooled) {
+            ShapePool pool = poolsByType.get(key);
+            return pool == null ? null : pool.acquire();
+        }
+        Supplier<Shape> constructor = registry.get(key);
+        return constructor == null ? null : constructor.get();
+    }
+
+    // Prototype-style copy that reuses a pooled object when pooling is on.
+    // Otherwise the registered constructor makes the copy, so pooled and
+    // unpooled mode differ only in allocation.
+    public Shape cloneShape(Shape prototype) {
+        ShapePool pool = poolsByClass.get(prototype.getClass());
+        Shape copy;
+        if (pool != null) {
+            copy = pool.acquire();
+        } else {
+            Supplier<Shape> constructor = constructorsByClass.get(prototype.getClass());
+            if (constructor == null) {
+                throw new IllegalArgumentException(prototype.getClass().getName() + " is not registered");
+            }
+            copy = constructor.get();
+        }
+        copy.copyFrom(prototype);
+        return copy;
+    }
+
+    // The shape must not be used after it is released. Releasing it again
+    // before it is handed out throws IllegalStateException.
+    public void release(Shape shape) {
+        ShapePool pool = poolsByClass.get(shape.getClass());
+        if (pool != null) {
+            pool.release(shape);
+        }
+    }
+}
+
+// Usage of the pooled factory
+public class PooledFactoryExample {
+    public static void main(String[] args) {
+        ShapeFactory shapeFactory = new ShapeFactory(true);
+
+        Circle circle = (Circle) shapeFactory.createShape("CIRCLE");
+        circle.radius = 10;
+        circle.draw(); // Output: Drawing Circle at 0:0 with radius 10
+
+        Shape copy = shapeFactory.cloneShape(circle);
+        copy.draw(); // Output: Drawing Circle at 0:0 with radius 10
+
+        shapeFactory.release(circle);
+        try {
+            shapeFactory.release(circle);
+            throw new AssertionError("Double release was accepted");
+        } catch (IllegalStateException e) {
+            System.out.println("Rejected: " + e.getMessage());
+        }
+        Shape reused = shapeFactory.createShape("circle");
+        System.out.println("Reused the released object: " + (reused == circle));
+        reused.draw(); // Output: Drawing Circle at 0:0 with radius 0
+
+        // Sustained allocation benchmark
+        long frames = args.length > 0 ? Long.parseLong(args[0]) : 2_000;
+        for (int round = 0; round < 2; round++) {
+            run("unpooled", new ShapeFactory(false), frames);
+            run("pooled", new ShapeFactory(true, 16_384), frames);
+        }
+    }
+
+    // Every frame creates, clones and drops 10,000 shapes, like a render loop
+    static void run(String name, ShapeFactory factory, long frames) {
+        String[] types = { "CIRCLE", "SQUARE", "RECTANGLE" };
+        Shape[] frame = new Shape[10_000];
+        long gcCountBefore = gcCount();
+        long gcTimeBefore = gcMillis();
+        long allocatedBefore = allocatedBytes();
+        long start = System.nanoTime();
+        long checksum = 0;
+
+        for (long f = 0; f < frames; f++) {
+            for (int i = 0; i < frame.length; i += 2) {
+                Shape shape = factory.createShape(types[i % 3]);
+                frame[i] = shape;
+                frame[i + 1] = factory.cloneShape(shape);
+            }
+            for (Shape shape : frame) {
+                checksum += shape.getClass().hashCode() & 1;
+                factory.release(shape);
+            }
+        }
+
+        System.out.printf("%-9s %6d ms, %8.1f MB allocated, %4d GCs, %4d ms in GC (%d)%n", name,
+                (System.nanoTime() - start) / 1_000_000, (allocatedBytes() - allocatedBefore) / 1e6,
+                gcCount() - gcCountBefore, gcMillis() - gcTimeBefore, checksum & 1);
+    }
+
+    static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        return count;
+    }
+
+    static long gcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0, gc.getCollectionTime());
+        }
+        return millis;
+    }
+
+    // HotSpot only; returns 0 elsewhere
+    static long allocatedBytes() {
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                    .getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,168 @@
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Prototype registry: prototypes are stored under a name and cloned by name.
+// cloneInto() clones one prototype many times straight into an array the caller
+// already has, so there is one registry lookup per batch instead of per object.
+// Every element is still its own clone() call; the saving is the lookup, not a
+// cheaper copy. Shapes that only hold plain values can extend ValueShape and
+// get clone() as an Object.clone() field copy, which for a shape as small as
+// Circle costs about the same as calling the constructor.
+
+interface CloneableShape extends Cloneable {
+    CloneableShape clone();
+    void draw();
+}
+
+// Base class for prototypes whose fields are all primitives or immutable values,
+// so a shallow field copy is a complete clone
+abstract class ValueShape implements CloneableShape {
+    @Override
+    public ValueShape clone() {
+        try {
+            return (ValueShape) super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new AssertionError(e); // cannot happen, we implement Cloneable
+        }
+    }
+}
+
+// Concrete prototype with value-only state
+class Circle extends ValueShape {
+    private int radius;
+
+    public Circle(int radius) {
+        this.radius = radius;
+    }
+
+    @Override
+    public Circle clone() {
+        return (Circle) super.clone();
+    }
+
+    @Override
+    public void draw() {
+        System.out.println("Drawing Circle with radius " + radius);
+    }
+}
+
+// Same circle cloned through its constructor, as in prototype/example.java;
+// the baseline for the benchmark
+class ConstructorCircle implements CloneableShape {
+    private int radius;
+
+    public ConstructorCircle(int radius) {
+        this.radius = radius;
+    }
+
+    @Override
+    public CloneableShape clone() {
+        return new ConstructorCircle(this.radius);
+    }
+
+    @Override
+    public void draw() {
+        System.out.println("Drawing Circle with radius " + radius);
+    }
+}
+
+// Concrete prototype that copies itself through its constructor, like the first example
+class Polygon implements CloneableShape {
+    private final int[] points;
+
+    public Polygon(int... points) {
+        this.points = points.clone();
+    }
+
+    @Override
+    public CloneableShape clone() {
+        return new Polygon(points);
+    }
+
+    @Override
+    public void draw() {
+        System.out.println("Drawing Polygon with " + points.length / 2 + " points");
+    }
+}
+
+// Prototype registry
+class PrototypeRegistry {
+    private final Map<String, CloneableShape> prototypes = new ConcurrentHashMap<>();
+
+    public void register(String name, CloneableShape prototype) {
+        prototypes.put(name, prototype);
+    }
+
+    public CloneableShape create(String name) {
+        return prototype(name).clone();
+    }
+
+    // Fills out[offset .. offset + count) with clones of the named prototype
+    public void cloneInto(String name, CloneableShape[] out, int offset, int count) {
+        Objects.checkFromIndexSize(offset, count, out.length);
+        CloneableShape prototype = prototype(name);
+        for (int i = offset, end = offset + count; i < end; i++) {
+            out[i] = prototype.clone();
+        }
+    }
+
+    private CloneableShape prototype(String name) {
+        CloneableShape prototype = prototypes.get(name);
+        if (prototype == null) {
+            throw new IllegalArgumentException("No prototype registered as " + name);
+        }
+        return prototype;
+    }
+}
+
+// Client class
+public class PrototypeRegistryClient {
+    public static void main(String[] args) {
+        PrototypeRegistry registry = new PrototypeRegistry();
+        registry.register("small circle", new Circle(10));
+        registry.register("triangle", new Polygon(0, 0, 4, 0, 2, 3));
+
+        registry.create("small circle").draw(); // Output: Drawing Circle with radius 10
+        registry.create("triangle").draw();     // Output: Drawing Polygon with 3 points
+
+        CloneableShape[] batch = new CloneableShape[3];
+        registry.cloneInto("small circle", batch, 0, 3);
+        for (CloneableShape shape : batch) {
+            shape.draw(); // Output: Drawing Circle with radius 10
+        }
+
+        // Benchmark: 10M circles in batches of 100,000. The baseline is the
+        // constructor-based clone() from prototype/example.java, one by one.
+        registry.register("constructor circle", new ConstructorCircle(10));
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+        CloneableShape[] out = new CloneableShape[100_000];
+        for (int round = 0; round < 5; round++) {
+            long baseline = oneByOne(registry, "constructor circle", out, n);
+            long single = oneByOne(registry, "small circle", out, n);
+            long bulkConstructor = bulk(registry, "constructor circle", out, n);
+            long bulkValue = bulk(registry, "small circle", out, n);
+            System.out.printf("round %d: constructor clone() one by one %d ms, Object.clone() one by one %d ms, "
+                    + "cloneInto with constructor clone() %d ms, cloneInto with Object.clone() %d ms%n", round,
+                    baseline / 1_000_000, single / 1_000_000, bulkConstructor / 1_000_000, bulkValue / 1_000_000);
+        }
+    }
+
+    static long oneByOne(PrototypeRegistry registry, String name, CloneableShape[] out, int n) {
+        long start = System.nanoTime();
+        for (int done = 0; done < n; done += out.length) {
+            for (int i = 0; i < out.length; i++) {
+                out[i] = registry.create(name);
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    static long bulk(PrototypeRegistry registry, String name, CloneableShape[] out, int n) {
+        long start = System.nanoTime();
+        for (int done = 0; done < n; done += out.length) {
+            registry.cloneInto(name, out, 0, out.length);
+        }
+        return System.nanoTime() - start;
+    }
+}
@@ -0,0 +1,252 @@
+// Copy-on-write prototypes. A shape with a big geometry buffer is expensive to
+// clone if every clone copies the buffer, and most clones are never changed.
+// Here a clone shares the prototype's buffer. The buffer is split into pages,
+// and the first write to a page copies only that page. A clone that is never
+// written costs one small object. Any number of threads may clone the same
+// prototype at once (e.g. clones handed out by a registry), but writing a
+// mesh while another thread clones or reads it needs external locking.
+
+interface CloneableShape extends Cloneable {
+    CloneableShape clone();
+    void draw();
+}
+
+// Geometry buffer split into pages that can be shared between copies
+class Geometry {
+    static final int PAGE_SIZE = 64;
+
+    private final int length;
+    private float[][] pages;
+    private boolean pageTableShared;
+    // Bit i is set when page i belongs to this copy only and may be written in
+    // place. One bit per page, so the buffer can be any size; null until this
+    // copy owns a page, so a fresh clone does not pay for it.
+    private long[] ownedPages;
+
+    Geometry(int length) {
+        int pageCount = (length + PAGE_SIZE - 1) / PAGE_SIZE;
+        this.length = length;
+        this.pages = new float[pageCount][PAGE_SIZE];
+        this.ownedPages = new long[(pageCount + 63) / 64];
+        java.util.Arrays.fill(ownedPages, -1L);
+    }
+
+    private Geometry(Geometry source) {
+        this.length = source.length;
+        this.pages = source.pages;
+        this.pageTableShared = true;
+    }
+
+    // O(1): both copies now share everything and must copy before writing.
+    // Synchronized because it also updates this geometry; two threads may
+    // clone the same prototype at once.
+    synchronized Geometry share() {
+        pageTableShared = true;
+        ownedPages = null;
+        return new Geometry(this);
+    }
+
+    float get(int index) {
+        return pages[index / PAGE_SIZE][index % PAGE_SIZE];
+    }
+
+    void set(int index, float value) {
+        int page = index / PAGE_SIZE;
+        long[] owned = ownedPages;
+        if (owned == null || (owned[page >>> 6] & (1L << page)) == 0) {
+            copyPage(page);
+        }
+        pages[page][index % PAGE_SIZE] = value;
+    }
+
+    private synchronized void copyPage(int page) {
+        if (pageTableShared) {
+            pages = pages.clone();
+            pageTableShared = false;
+        }
+        if (ownedPages == null) {
+            ownedPages = new long[(pages.length + 63) / 64];
+        }
+        pages[page] = pages[page].clone();
+        ownedPages[page >>> 6] |= 1L << page;
+    }
+
+    int length() {
+        return length;
+    }
+
+    int ownedPageCount() {
+        int count = 0;
+        if (ownedPages != null) {
+            for (long word : ownedPages) {
+                count += Long.bitCount(word);
+            }
+        }
+        // The constructor marks the unused bits of the last word too
+        return Math.min(count, pages.length);
+    }
+}
+
+// Concrete prototype
+class Mesh implements CloneableShape {
+    private final String name;
+    private final Geometry geometry;
+
+    public Mesh(String name, int vertices) {
+        this.name = name;
+        this.geometry = new Geometry(vertices * 2);
+        for (int i = 0; i < geometry.length(); i++) {
+            geometry.set(i, i * 0.5f);
+        }
+    }
+
+    private Mesh(Mesh source) {
+        this.name = source.name;
+        this.geometry = source.geometry.share();
+    }
+
+    @Override
+    public Mesh clone() {
+        return new Mesh(this);
+    }
+
+    public void moveVertex(int vertex, float x, float y) {
+        geometry.set(vertex * 2, x);
+        geometry.set(vertex * 2 + 1, y);
+    }
+
+    public float x(int vertex) {
+        return geometry.get(vertex * 2);
+    }
+
+    public int ownedPageCount() {
+        return geometry.ownedPageCount();
+    }
+
+    @Override
+    public void draw() {
+        System.out.println("Drawing " + name + " with " + geometry.length() / 2 + " vertices, "
+                + geometry.ownedPageCount() + " pages of its own");
+    }
+}
+
+// Same shape with a plain clone() that copies the whole buffer, for comparison
+class EagerMesh implements CloneableShape {
+    private final float[] geometry;
+
+    public EagerMesh(int vertices) {
+        geometry = new float[vertices * 2];
+        for (int i = 0; i < geometry.length; i++) {
+            geometry[i] = i * 0.5f;
+        }
+    }
+
+    private EagerMesh(float[] geometry) {
+        this.geometry = geometry.clone();
+    }
+
+    @Override
+    public EagerMesh clone() {
+        return new EagerMesh(geometry);
+    }
+
+    public void moveVertex(int vertex, float x, float y) {
+        geometry[vertex * 2] = x;
+        geometry[vertex * 2 + 1] = y;
+    }
+
+    @Override
+    public void draw() {
+        System.out.println("Drawing mesh with " + geometry.length / 2 + " vertices");
+    }
+}
+
+// Client class
+public class CopyOnWriteClient {
+    // 512 KB of geometry, 2048 pages
+    static final int VERTICES = 65_536;
+
+    public static void main(String[] args) {
+        Mesh prototype = new Mesh("terrain", VERTICES);
+        Mesh untouched = prototype.clone();
+        Mesh edited = prototype.clone();
+        edited.moveVertex(10, 1f, 2f);
+
+        untouched.draw(); // Output: Drawing terrain with 65536 vertices, 0 pages of its own
+        edited.draw();    // Output: Drawing terrain with 65536 vertices, 1 pages of its own
+        System.out.println("Prototype unchanged: " + (prototype.x(10) == 10f));
+
+        // Benchmark: 1M clones, 1% of them move one vertex
+        int clones = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        measure("copy-on-write", clones, () -> {
+            Mesh[] all = new Mesh[clones];
+            for (int i = 0; i < clones; i++) {
+                all[i] = prototype.clone();
+                if (i % 100 == 0) {
+                    all[i].moveVertex(i % VERTICES, 1f, 1f);
+                }
+            }
+            return all;
+        });
+
+        // Concurrent clones of one prototype, as a registry would hand them out
+        Thread[] threads = new Thread[4];
+        Mesh[][] perThread = new Mesh[threads.length][10_000];
+        for (int t = 0; t < threads.length; t++) {
+            Mesh[] mine = perThread[t];
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < mine.length; i++) {
+                    mine[i] = prototype.clone();
+                    mine[i].moveVertex(i % VERTICES, -1f, -1f);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        for (Mesh[] mine : perThread) {
+            for (int i = 0; i < mine.length; i++) {
+                if (mine[i].x(i % VERTICES) != -1f || mine[i].ownedPageCount() != 1) {
+                    throw new IllegalStateException("Clone " + i + " lost its own write");
+                }
+            }
+        }
+        if (prototype.x(10) != 10f || prototype.ownedPageCount() != 0) {
+            throw new IllegalStateException("Clones from other threads changed the prototype");
+        }
+        System.out.println("Concurrent clones from 4 threads: prototype unchanged");
+
+        // 1M eager clones would need 512 GB, so measure a smaller run and scale it up
+        int eagerClones = Math.min(clones, 1_000);
+        EagerMesh eagerPrototype = new EagerMesh(VERTICES);
+        measure("eager copy", eagerClones, () -> {
+            EagerMesh[] all = new EagerMesh[eagerClones];
+            for (int i = 0; i < eagerClones; i++) {
+                all[i] = eagerPrototype.clone();
+                if (i % 100 == 0) {
+                    all[i].moveVertex(i % VERTICES, 1f, 1f);
+                }
+            }
+            return all;
+        });
+    }
+
+    static void measure(String name, int clones, java.util.function.Supplier<Object[]> run) {
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        long before = runtime.totalMemory() - runtime.freeMemory();
+        long start = System.nanoTime();
+        Object[] all = run.get();
+        long nanos = System.nanoTime() - start;
+        System.gc();
+        long bytes = runtime.totalMemory() - runtime.freeMemory() - before;
+        System.out.printf("%-14s %,d clones: %d ms, %.1f MB retained, %.0f bytes and %.0f ns per clone%n",
+                name, all.length, nanos / 1_000_000, bytes / 1e6, (double) bytes / clones, (double) nanos / clones);
+    }
+}
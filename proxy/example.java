@@ -1,3 +1,10 @@
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
 // Subject interface
 interface Image {
     void display();
@@ -12,7 +19,11 @@ class RealImage implements Image {
         loadImageFromDisk();
     }
 
+    // Counts loads per filename so we can check the proxy never loads twice
+    static final Map<String, AtomicInteger> loads = new ConcurrentHashMap<>();
+
     private void loadImageFromDisk() {
+        loads.computeIfAbsent(filename, f -> new AtomicInteger()).incrementAndGet();
         System.out.println("Loading image: " + filename);
     }
 
@@ -24,8 +35,9 @@ class RealImage implements Image {
 
 // Proxy
 class ProxyImage implements Image {
-    private RealImage realImage;
-    private String filename;
+    // volatile so a thread that sees a non-null reference also sees a fully built RealImage
+    private volatile RealImage realImage;
+    private final String filename;
 
     public ProxyImage(String filename) {
         this.filename = filename;
@@ -33,16 +45,29 @@ class ProxyImage implements Image {
 
     @Override
     public void display() {
-        if (realImage == null) {
-            realImage = new RealImage(filename);
+        realImage().display();
+    }
+
+    // Double-checked locking: concurrent first callers wait for a single load,
+    // every later call is just a volatile read
+    private RealImage realImage() {
+        RealImage image = realImage;
+        if (image == null) {
+            synchronized (this) {
+                image = realImage;
+                if (image == null) {
+                    image = new RealImage(filename);
+                    realImage = image;
+                }
+            }
         }
-        realImage.display();
+        return image;
     }
 }
 
 // Client code
 public class ProxyPatternExample {
-    public static void main(String[] args) {
+    public static void main(String[] args) throws InterruptedException {
         Image image = new ProxyImage("example.jpg");
 
         // The real object is loaded only when needed
@@ -50,5 +75,45 @@ public class ProxyPatternExample {
 
         // The real object is not loaded again; it is reused
         image.display();
+
+        // Stress test: many threads hit the same proxies at the same time
+        stressTest(8, 32);
+    }
+
+    static void stressTest(int images, int threads) throws InterruptedException {
+        RealImage.loads.clear();
+        Image[] proxies = new Image[images];
+        for (int i = 0; i < images; i++) {
+            proxies[i] = new ProxyImage("stress-" + i + ".jpg");
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            pool.execute(() -> {
+                try {
+                    start.await();
+                    for (Image proxy : proxies) {
+                        proxy.display();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        start.countDown();
+        done.await();
+        pool.shutdown();
+
+        for (int i = 0; i < images; i++) {
+            int count = RealImage.loads.get("stress-" + i + ".jpg").get();
+            if (count != 1) {
+                throw new IllegalStateException("stress-" + i + ".jpg loaded " + count + " times");
+            }
+        }
+        System.out.println("Stress test passed: each of " + images + " images loaded exactly once by " + threads + " threads");
     }
 }
\ No newline at end of file
@@ -0,0 +1,301 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+// A caching proxy: every ProxyImage shares one process-wide cache, so many
+// proxies that point at the same file only keep one RealImage in memory.
+// ImageCache.shared() is that cache; tests and tools can pass their own.
+// The cache has a total byte budget and drops the least recently used images
+// when it is full. A proxy whose image was dropped just loads it again.
+
+// Subject interface
+interface Image {
+    void display();
+}
+
+// RealSubject
+class RealImage implements Image {
+    private final String filename;
+    private final byte[] pixels;
+
+    public RealImage(String filename, int sizeInBytes) {
+        this(filename, sizeInBytes, true);
+    }
+
+    RealImage(String filename, int sizeInBytes, boolean verbose) {
+        this.filename = filename;
+        this.pixels = loadImageFromDisk(sizeInBytes, verbose);
+    }
+
+    private byte[] loadImageFromDisk(int sizeInBytes, boolean verbose) {
+        if (verbose) {
+            System.out.println("Loading image: " + filename);
+        }
+        return new byte[sizeInBytes];
+    }
+
+    public long sizeInBytes() {
+        return pixels.length;
+    }
+
+    @Override
+    public void display() {
+        System.out.println("Displaying image: " + filename);
+    }
+}
+
+// Loads without printing, for the concurrency check in main
+class QuietImage extends RealImage {
+    QuietImage(String filename) {
+        super(filename, 16, false);
+    }
+}
+
+// Shared cache with a byte budget and LRU eviction
+class ImageCache {
+    private static final long SHARED_MAX_BYTES = Long.getLong("imagecache.maxBytes", 256L << 20);
+    private static final int SHARED_IMAGE_BYTES = 1 << 20;
+
+    private final long maxBytes;
+    private final Function<String, RealImage> loader;
+
+    // accessOrder = true keeps the least recently used entry first
+    private final LinkedHashMap<String, RealImage> images = new LinkedHashMap<>(16, 0.75f, true);
+    // Loads that are running right now, so two misses on the same file share one load
+    private final Map<String, CompletableFuture<RealImage>> loading = new ConcurrentHashMap<>();
+    private long usedBytes;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder loadNanos = new LongAdder();
+
+    public ImageCache(long maxBytes, Function<String, RealImage> loader) {
+        this.maxBytes = maxBytes;
+        this.loader = loader;
+    }
+
+    // The process-wide cache; the budget comes from -Dimagecache.maxBytes
+    public static ImageCache shared() {
+        return Shared.INSTANCE;
+    }
+
+    private static class Shared {
+        static final ImageCache INSTANCE = new ImageCache(SHARED_MAX_BYTES, filename -> new RealImage(filename, SHARED_IMAGE_BYTES));
+    }
+
+    public RealImage get(String filename) {
+        CompletableFuture<RealImage> running;
+        CompletableFuture<RealImage> mine = null;
+        // The lookup and the registration of a new load happen under one lock,
+        // and a finished load leaves `loading` under the same lock, so a miss
+        // sees either the resident image or the running load, never neither
+        synchronized (this) {
+            RealImage image = images.get(filename);
+            if (image != null) {
+                hits.increment();
+                return image;
+            }
+            misses.increment();
+            running = loading.get(filename);
+            if (running == null) {
+                mine = new CompletableFuture<>();
+                loading.put(filename, mine);
+            }
+        }
+        if (mine == null) {
+            return running.join();
+        }
+        try {
+            long start = System.nanoTime();
+            RealImage image = loader.apply(filename);
+            loadNanos.add(System.nanoTime() - start);
+            loads.increment();
+            synchronized (this) {
+                put(filename, image);
+                loading.remove(filename);
+            }
+            mine.complete(image);
+            return image;
+        } catch (Throwable e) {
+            // Errors too (e.g. OutOfMemoryError from the pixel buffer): a load
+            // left in `loading` would block every later get() of this file
+            synchronized (this) {
+                loading.remove(filename);
+            }
+            mine.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    private synchronized void put(String filename, RealImage image) {
+        RealImage old = images.put(filename, image);
+        if (old != null) {
+            usedBytes -= old.sizeInBytes();
+        }
+        usedBytes += image.sizeInBytes();
+
+        // Evict from the LRU end, but always keep the image we just loaded
+        Iterator<Map.Entry<String, RealImage>> it = images.entrySet().iterator();
+        while (usedBytes > maxBytes && it.hasNext()) {
+            Map.Entry<String, RealImage> eldest = it.next();
+            if (eldest.getKey().equals(filename)) {
+                continue;
+            }
+            usedBytes -= eldest.getValue().sizeInBytes();
+            it.remove();
+            evictions.increment();
+        }
+    }
+
+    public synchronized boolean isResident(String filename) {
+        return images.containsKey(filename);
+    }
+
+    public Stats stats() {
+        synchronized (this) {
+            return new Stats(hits.sum(), misses.sum(), loads.sum(), evictions.sum(), loadNanos.sum(), usedBytes, images.size());
+        }
+    }
+
+    // Snapshot of the cache metrics, e.g. to export to a monitoring system
+    public static class Stats {
+        // misses includes requests that waited for another thread's load; loads
+        // counts the loads actually run
+        public final long hits, misses, loads, evictions, loadNanos, usedBytes, entries;
+
+        Stats(long hits, long misses, long loads, long evictions, long loadNanos, long usedBytes, long entries) {
+            this.hits = hits;
+            this.misses = misses;
+            this.loads = loads;
+            this.evictions = evictions;
+            this.loadNanos = loadNanos;
+            this.usedBytes = usedBytes;
+            this.entries = entries;
+        }
+
+        public double hitRatio() {
+            long total = hits + misses;
+            return total == 0 ? 0 : (double) hits / total;
+        }
+
+        public double averageLoadMillis() {
+            return loads == 0 ? 0 : loadNanos / 1e6 / loads;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("hits=%d misses=%d loads=%d hitRatio=%.2f evictions=%d avgLoad=%.3fms used=%dB entries=%d",
+                    hits, misses, loads, hitRatio(), evictions, averageLoadMillis(), usedBytes, entries);
+        }
+    }
+}
+
+// Proxy
+class ProxyImage implements Image {
+    private final String filename;
+    private final ImageCache cache;
+
+    // Uses the process-wide cache
+    public ProxyImage(String filename) {
+        this(filename, ImageCache.shared());
+    }
+
+    public ProxyImage(String filename, ImageCache cache) {
+        this.filename = filename;
+        this.cache = cache;
+    }
+
+    // No RealImage is kept here; the cache decides what stays in memory
+    @Override
+    public void display() {
+        cache.get(filename).display();
+    }
+}
+
+// Client code
+public class CachingProxyExample {
+    public static void main(String[] args) {
+        // Every image is 1 KB and the cache can hold two of them
+        ImageCache cache = new ImageCache(2048, filename -> new RealImage(filename, 1024));
+
+        Image a1 = new ProxyImage("a.jpg", cache);
+        Image a2 = new ProxyImage("a.jpg", cache);
+        Image b = new ProxyImage("b.jpg", cache);
+        Image c = new ProxyImage("c.jpg", cache);
+
+        a1.display(); // Loads a.jpg
+        a2.display(); // Another proxy, same file: served from the cache
+        b.display();  // Loads b.jpg, cache is now full
+        a1.display(); // a.jpg becomes the most recently used
+        c.display();  // Loads c.jpg and evicts b.jpg
+        b.display();  // b.jpg was evicted, so it is loaded again transparently
+
+        System.out.println(cache.stats());
+
+        // Proxies created without a cache all share ImageCache.shared()
+        new ProxyImage("d.jpg").display(); // Loads d.jpg
+        new ProxyImage("d.jpg").display(); // Served from the shared cache
+        System.out.println(ImageCache.shared().stats());
+
+        // Eight threads miss on the same file at once: it is loaded exactly once
+        for (int round = 0; round < 200; round++) {
+            ImageCache raced = new ImageCache(1 << 20, filename -> new QuietImage(filename));
+            Thread[] threads = new Thread[8];
+            for (int t = 0; t < threads.length; t++) {
+                threads[t] = new Thread(() -> {
+                    for (int i = 0; i < 1000; i++) {
+                        raced.get("e.jpg");
+                    }
+                });
+                threads[t].start();
+            }
+            for (Thread thread : threads) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            if (raced.stats().loads != 1) {
+                throw new IllegalStateException("e.jpg was loaded " + raced.stats().loads + " times");
+            }
+        }
+        System.out.println("Concurrent misses: every file loaded once");
+
+        // A load that dies with an Error must not leave later callers waiting
+        AtomicInteger attempts = new AtomicInteger();
+        ImageCache flaky = new ImageCache(1 << 20, filename -> {
+            if (attempts.getAndIncrement() == 0) {
+                throw new OutOfMemoryError("Simulated: no room for " + filename);
+            }
+            return new QuietImage(filename);
+        });
+        try {
+            flaky.get("f.jpg");
+            throw new IllegalStateException("The failing load returned an image");
+        } catch (OutOfMemoryError e) {
+            System.out.println("First load failed: " + e.getMessage());
+        }
+        Thread retry = new Thread(() -> flaky.get("f.jpg"));
+        retry.setDaemon(true);
+        retry.start();
+        try {
+            retry.join(5_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        if (retry.isAlive() || !flaky.isResident("f.jpg")) {
+            throw new IllegalStateException("f.jpg is stuck after a failed load");
+        }
+        System.out.println("Retry after the failed load: " + flaky.stats());
+    }
+}
@@ -0,0 +1,214 @@
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// A prefetching proxy: instead of waiting for the first display() to load the
+// image, the proxy can start loading in the background. Either the client calls
+// prefetch() itself, or a predictor guesses which images will be shown next
+// (for example the next N pictures of a gallery) and prefetches them.
+
+// Subject interface
+interface Image {
+    void display();
+}
+
+// RealSubject
+class RealImage implements Image {
+    private final String filename;
+
+    public RealImage(String filename, long loadMillis) {
+        this.filename = filename;
+        loadImageFromDisk(loadMillis);
+    }
+
+    // Simulates a slow disk or network read. An interrupted load (e.g. the
+    // executor was shut down) fails instead of pretending the image is there.
+    private void loadImageFromDisk(long loadMillis) {
+        try {
+            Thread.sleep(loadMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Loading " + filename + " was interrupted");
+        }
+    }
+
+    @Override
+    public void display() {
+        // Kept quiet so the benchmark below measures loading, not printing
+    }
+}
+
+// Proxy
+class AsyncProxyImage implements Image {
+    private final String filename;
+    private final long loadMillis;
+    private final ExecutorService loader;
+    private CompletableFuture<RealImage> realImage;
+
+    public AsyncProxyImage(String filename, long loadMillis, ExecutorService loader) {
+        this.filename = filename;
+        this.loadMillis = loadMillis;
+        this.loader = loader;
+    }
+
+    // Starts loading in the background; calling it again does nothing while
+    // a load is running or done. A failed load is forgotten, so the next call
+    // starts a new one.
+    public synchronized CompletableFuture<RealImage> prefetch() {
+        CompletableFuture<RealImage> load = realImage;
+        if (load == null) {
+            load = CompletableFuture.supplyAsync(() -> new RealImage(filename, loadMillis), loader);
+            realImage = load;
+            CompletableFuture<RealImage> started = load;
+            load.whenComplete((image, failure) -> {
+                if (failure != null) {
+                    forget(started);
+                }
+            });
+        }
+        return load;
+    }
+
+    private synchronized void forget(CompletableFuture<RealImage> failed) {
+        if (realImage == failed) {
+            realImage = null;
+        }
+    }
+
+    public synchronized boolean isLoaded() {
+        return realImage != null && realImage.isDone() && !realImage.isCompletedExceptionally();
+    }
+
+    // Waits only if the background load has not finished yet
+    @Override
+    public void display() {
+        prefetch().join().display();
+    }
+
+    public String getFilename() {
+        return filename;
+    }
+}
+
+// Guesses which images will be needed after the given one
+interface AccessPredictor {
+    List<String> predictAfter(String filename);
+}
+
+// For a gallery the next images are simply the next ones in the sequence
+class GallerySequencePredictor implements AccessPredictor {
+    private final List<String> sequence;
+    private final int lookAhead;
+
+    public GallerySequencePredictor(List<String> sequence, int lookAhead) {
+        this.sequence = sequence;
+        this.lookAhead = lookAhead;
+    }
+
+    @Override
+    public List<String> predictAfter(String filename) {
+        int index = sequence.indexOf(filename);
+        if (index < 0) {
+            return List.of();
+        }
+        return sequence.subList(index + 1, Math.min(sequence.size(), index + 1 + lookAhead));
+    }
+}
+
+// Holds the proxies and asks the predictor what to prefetch after each display
+class Gallery {
+    private final Map<String, AsyncProxyImage> images = new LinkedHashMap<>();
+    private final AccessPredictor predictor;
+
+    public Gallery(List<String> filenames, long loadMillis, ExecutorService loader, AccessPredictor predictor) {
+        for (String filename : filenames) {
+            images.put(filename, new AsyncProxyImage(filename, loadMillis, loader));
+        }
+        this.predictor = predictor;
+    }
+
+    public void show(String filename) {
+        AsyncProxyImage image = images.get(filename);
+        if (image == null) {
+            throw new IllegalArgumentException("Not in the gallery: " + filename);
+        }
+        image.display();
+        if (predictor != null) {
+            // Predictions are only hints; names outside the gallery are skipped
+            for (String next : predictor.predictAfter(filename)) {
+                AsyncProxyImage predicted = images.get(next);
+                if (predicted != null) {
+                    predicted.prefetch();
+                }
+            }
+        }
+    }
+}
+
+// Client code
+public class PrefetchingProxyExample {
+    static final long LOAD_MILLIS = 40;
+    static final long VIEW_MILLIS = 50;
+
+    public static void main(String[] args) throws InterruptedException {
+        ExecutorService loader = Executors.newFixedThreadPool(4);
+
+        // Explicit prefetch: start the load, do something else, then display
+        AsyncProxyImage cover = new AsyncProxyImage("cover.jpg", LOAD_MILLIS, loader);
+        cover.prefetch();
+        Thread.sleep(VIEW_MILLIS);
+        System.out.println("cover.jpg loaded before display: " + cover.isLoaded());
+        cover.display();
+
+        // A predictor may name files the gallery does not have; they are skipped
+        Gallery small = new Gallery(List.of("a.jpg", "b.jpg"), 1, loader, filename -> List.of("missing.jpg", "b.jpg"));
+        small.show("a.jpg");
+        System.out.println("Prediction of missing.jpg skipped, b.jpg prefetched");
+
+        // Benchmark: a user flips through a gallery and looks at each picture for a while
+        List<String> filenames = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            filenames.add("photo-" + i + ".jpg");
+        }
+
+        double lazy = averageFirstDisplayMillis(new Gallery(filenames, LOAD_MILLIS, loader, null), filenames);
+        double prefetched = averageFirstDisplayMillis(
+                new Gallery(filenames, LOAD_MILLIS, loader, new GallerySequencePredictor(filenames, 3)), filenames);
+
+        System.out.printf("Average first display, load on demand: %.2f ms%n", lazy);
+        System.out.printf("Average first display, prefetch next 3: %.2f ms%n", prefetched);
+        System.out.printf("First display latency reduced by %.0f%%%n", 100 * (1 - prefetched / lazy));
+
+        loader.shutdown();
+
+        // A load interrupted by shutdownNow() fails and is not kept as loaded
+        ExecutorService stopped = Executors.newSingleThreadExecutor();
+        AsyncProxyImage interrupted = new AsyncProxyImage("slow.jpg", 10_000, stopped);
+        CompletableFuture<RealImage> load = interrupted.prefetch();
+        Thread.sleep(VIEW_MILLIS);
+        stopped.shutdownNow();
+        try {
+            load.join();
+            throw new IllegalStateException("Interrupted load produced an image");
+        } catch (CompletionException | CancellationException e) {
+            System.out.println("slow.jpg after shutdownNow: failed, loaded = " + interrupted.isLoaded());
+        }
+    }
+
+    static double averageFirstDisplayMillis(Gallery gallery, List<String> filenames) throws InterruptedException {
+        long total = 0;
+        for (String filename : filenames) {
+            long start = System.nanoTime();
+            gallery.show(filename);
+            total += System.nanoTime() - start;
+            Thread.sleep(VIEW_MILLIS);
+        }
+        return total / 1e6 / filenames.size();
+    }
+}
@@ -0,0 +1,238 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import jdk.incubator.foreign.MemorySegment;
+import jdk.incubator.foreign.ResourceScope;
+
+// A virtual proxy whose RealImage really reads a file. The default loader
+// memory-maps the file: the pixels are never copied onto the heap, the OS pages
+// them in when they are read, and RealImage only hands out a read-only view.
+// The benchmark compares it with reading the whole file through a stream.
+//
+// Evicting an image unmaps the file right away. The mapping belongs to a
+// ResourceScope from the foreign memory API, and closing the scope unmaps it.
+// Every view that pixels() handed out is tied to that scope, so using a view
+// after eviction throws IllegalStateException instead of touching unmapped
+// memory. The API is still an incubator module in Java 17, so compile and
+// run with:
+//
+//   javac --add-modules jdk.incubator.foreign ...
+//   java  --add-modules jdk.incubator.foreign MappedProxyExample
+
+// Subject interface
+interface Image {
+    void display();
+}
+
+// Strategy for getting the file contents into memory. Anything that must be
+// released on eviction is attached to scope.
+interface ImageLoader {
+    ByteBuffer load(Path file, ResourceScope scope) throws IOException;
+}
+
+// Copies the whole file into a heap byte[]; there is nothing to release
+class StreamImageLoader implements ImageLoader {
+    @Override
+    public ByteBuffer load(Path file, ResourceScope scope) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            return ByteBuffer.wrap(in.readAllBytes());
+        }
+    }
+}
+
+// Maps the file into memory without copying it; closing the scope unmaps it
+class MappedImageLoader implements ImageLoader {
+    @Override
+    public ByteBuffer load(Path file, ResourceScope scope) throws IOException {
+        MemorySegment mapping = MemorySegment.mapFile(file, 0, Files.size(file), FileChannel.MapMode.READ_ONLY, scope);
+        return mapping.asByteBuffer();
+    }
+}
+
+// RealSubject
+class RealImage implements Image {
+    private final Path file;
+    // Shared so that eviction may run on another thread than the one that loaded
+    private final ResourceScope scope = ResourceScope.newSharedScope();
+    private ByteBuffer pixels;
+
+    public RealImage(Path file, ImageLoader loader) {
+        this.file = file;
+        loadImageFromDisk(loader);
+    }
+
+    private void loadImageFromDisk(ImageLoader loader) {
+        try {
+            pixels = loader.load(file, scope);
+        } catch (IOException e) {
+            scope.close();
+            throw new UncheckedIOException("Could not load image " + file, e);
+        }
+    }
+
+    // Read-only view of the pixel data; no bytes are copied. A mapped view
+    // throws IllegalStateException once the image is unloaded.
+    public ByteBuffer pixels() {
+        if (pixels == null) {
+            throw new IllegalStateException("Image " + file + " was unloaded");
+        }
+        return pixels.asReadOnlyBuffer();
+    }
+
+    // Unmaps the file now instead of whenever the buffer is garbage collected
+    public void unload() {
+        pixels = null;
+        scope.close();
+    }
+
+    @Override
+    public void display() {
+        System.out.println("Displaying image: " + file.getFileName() + " (" + pixels().remaining() + " bytes)");
+    }
+}
+
+// Proxy
+class ProxyImage implements Image {
+    private final Path file;
+    private final ImageLoader loader;
+    private RealImage realImage;
+
+    public ProxyImage(Path file, ImageLoader loader) {
+        this.file = file;
+        this.loader = loader;
+    }
+
+    public ProxyImage(Path file) {
+        this(file, new MappedImageLoader());
+    }
+
+    @Override
+    public synchronized void display() {
+        realImage().display();
+    }
+
+    public synchronized ByteBuffer pixels() {
+        return realImage().pixels();
+    }
+
+    // Called when the image is evicted; the next access maps the file again
+    public synchronized void evict() {
+        if (realImage != null) {
+            realImage.unload();
+            realImage = null;
+        }
+    }
+
+    private RealImage realImage() {
+        if (realImage == null) {
+            realImage = new RealImage(file, loader);
+        }
+        return realImage;
+    }
+}
+
+// Client code
+public class MappedProxyExample {
+    public static void main(String[] args) throws IOException {
+        // Largest file size in MB; pass 1024 to go up to 1 GB
+        long maxMegabytes = args.length > 0 ? Long.parseLong(args[0]) : 64;
+
+        Path dir = Files.createTempDirectory("images");
+        try {
+            Path example = writeImage(dir, 4096);
+            ProxyImage image = new ProxyImage(example);
+            image.display();
+            ByteBuffer view = image.pixels();
+            image.evict();
+            boolean unmapped = false;
+            try {
+                view.get(0);
+            } catch (IllegalStateException e) {
+                unmapped = true;
+                System.out.println("View after eviction: " + e.getMessage()); // the file is unmapped
+            }
+            if (!unmapped) {
+                throw new IllegalStateException("View still readable after eviction");
+            }
+            image.display(); // mapped again after eviction
+
+            System.out.printf("%10s %14s %14s %14s %14s%n", "size", "stream ms", "mapped ms", "stream heap", "mapped heap");
+            for (long size = 1024; size <= maxMegabytes * 1024 * 1024; size *= 16) {
+                Path file = writeImage(dir, size);
+                Result stream = measure(file, new StreamImageLoader());
+                Result mapped = measure(file, new MappedImageLoader());
+                System.out.printf("%10s %14.3f %14.3f %14s %14s%n", human(size),
+                        stream.millis, mapped.millis, human(stream.heapBytes), human(mapped.heapBytes));
+                Files.delete(file);
+            }
+        } finally {
+            try (var files = Files.list(dir)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(dir);
+        }
+    }
+
+    static class Result {
+        final double millis;
+        final long heapBytes;
+
+        Result(double millis, long heapBytes) {
+            this.millis = millis;
+            this.heapBytes = heapBytes;
+        }
+    }
+
+    // Loads the file and reads one byte per page, so mapped pages are really faulted in
+    static Result measure(Path file, ImageLoader loader) {
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        long heapBefore = runtime.totalMemory() - runtime.freeMemory();
+
+        long start = System.nanoTime();
+        ProxyImage image = new ProxyImage(file, loader);
+        ByteBuffer pixels = image.pixels();
+        long checksum = 0;
+        for (int i = 0; i < pixels.limit(); i += 4096) {
+            checksum += pixels.get(i);
+        }
+        double millis = (System.nanoTime() - start) / 1e6;
+
+        long heapAfter = runtime.totalMemory() - runtime.freeMemory();
+        if (checksum == Long.MIN_VALUE) {
+            System.out.println(); // keeps the JIT from dropping the loop
+        }
+        image.evict();
+        return new Result(millis, Math.max(0, heapAfter - heapBefore));
+    }
+
+    static Path writeImage(Path dir, long size) throws IOException {
+        Path file = dir.resolve("image-" + size + ".raw");
+        byte[] chunk = new byte[(int) Math.min(size, 1 << 20)];
+        new Random(size).nextBytes(chunk);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            for (long written = 0; written < size; written += chunk.length) {
+                channel.write(ByteBuffer.wrap(chunk, 0, (int) Math.min(chunk.length, size - written)));
+            }
+        }
+        return file;
+    }
+
+    static String human(long bytes) {
+        if (bytes >= 1 << 20) {
+            return (bytes >> 20) + " MB";
+        }
+        if (bytes >= 1 << 10) {
+            return (bytes >> 10) + " KB";
+        }
+        return bytes + " B";
+    }
+}
@@ -0,0 +1,668 @@
+import java.lang.annotation.Annotation;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Proxy;
+import java.lang.reflect.Type;
+import java.lang.reflect.TypeVariable;
+import java.lang.reflect.WildcardType;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+
+// Instead of writing a proxy class by hand for every interface (like ProxyImage
+// for Image), ProxyFactory builds one at runtime. The generated proxy creates
+// the real object lazily, remembers the results of methods marked @Pure, and
+// can time every method call.
+//
+// The proxy class is generated as Java source, compiled in memory with the
+// JDK's compiler and defined in the interface's package and class loader, once
+// per interface. Its methods call the target directly, just like ProxyImage,
+// so the JIT can inline them. The compiler reads the interface and the types in
+// its signatures through their own modules, so interfaces in named packages,
+// plugin class loaders or on the module path work too. Without a compiler (a
+// JRE), for local or anonymous interfaces, or when the interface's package is
+// not open to this code, the factory logs a warning and falls back to
+// java.lang.reflect.Proxy, which goes through Method.invoke on every call.
+
+// Marks a method whose result only depends on its arguments, so it can be cached.
+// Array parameters are rejected, because arrays compare by identity.
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+@interface Pure {
+}
+
+// Subject interface
+interface Image {
+    void display();
+
+    @Pure
+    int width();
+}
+
+// RealSubject
+class RealImage implements Image {
+    private final String filename;
+
+    public RealImage(String filename) {
+        this.filename = filename;
+        loadImageFromDisk();
+    }
+
+    private void loadImageFromDisk() {
+        System.out.println("Loading image: " + filename);
+    }
+
+    @Override
+    public void display() {
+    }
+
+    @Override
+    public int width() {
+        return filename.length() * 100;
+    }
+}
+
+// Hand-written proxy, kept for the benchmark
+class ProxyImage implements Image {
+    private volatile RealImage realImage;
+    private final String filename;
+
+    public ProxyImage(String filename) {
+        this.filename = filename;
+    }
+
+    @Override
+    public void display() {
+        realImage().display();
+    }
+
+    @Override
+    public int width() {
+        return realImage().width();
+    }
+
+    private RealImage realImage() {
+        RealImage image = realImage;
+        if (image == null) {
+            synchronized (this) {
+                image = realImage;
+                if (image == null) {
+                    image = new RealImage(filename);
+                    realImage = image;
+                }
+            }
+        }
+        return image;
+    }
+}
+
+// Call count and total time of one method
+class MethodTimer {
+    final LongAdder calls = new LongAdder();
+    final LongAdder nanos = new LongAdder();
+
+    @Override
+    public String toString() {
+        long count = calls.sum();
+        return count + " calls, avg " + (count == 0 ? 0 : nanos.sum() / count) + " ns";
+    }
+}
+
+// Creates the real object on first use; shared by generated and reflective proxies
+final class LazyTarget<T> implements Supplier<T> {
+    private final Supplier<? extends T> target;
+    private volatile T instance;
+
+    LazyTarget(Supplier<? extends T> target) {
+        this.target = target;
+    }
+
+    @Override
+    public T get() {
+        T result = instance;
+        if (result == null) {
+            synchronized (this) {
+                result = instance;
+                if (result == null) {
+                    result = target.get();
+                    instance = result;
+                }
+            }
+        }
+        return result;
+    }
+}
+
+// Builds proxies for any interface
+class ProxyFactory {
+    private static final System.Logger LOG = System.getLogger(ProxyFactory.class.getName());
+
+    private ProxyFactory() {
+    }
+
+    public static <T> T lazy(Class<T> type, Supplier<? extends T> target) {
+        return create(type, target, null);
+    }
+
+    // Same as lazy(), and also records call counts and times into timers
+    public static <T> T timed(Class<T> type, Supplier<? extends T> target, Map<Method, MethodTimer> timers) {
+        return create(type, target, timers);
+    }
+
+    // Uses java.lang.reflect.Proxy even when a class could be generated, for comparison
+    public static <T> T reflective(Class<T> type, Supplier<? extends T> target) {
+        checkInterface(type);
+        Handler<T> handler = new Handler<>(type, target, null);
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, handler));
+    }
+
+    // True if the proxy is a generated class rather than the reflective fallback
+    public static boolean isGenerated(Object proxy) {
+        return !Proxy.isProxyClass(proxy.getClass());
+    }
+
+    private static final ClassValue<Generated> LAZY = new ClassValue<>() {
+        @Override
+        protected Generated computeValue(Class<?> type) {
+            return Generated.of(type, false);
+        }
+    };
+
+    private static final ClassValue<Generated> TIMED = new ClassValue<>() {
+        @Override
+        protected Generated computeValue(Class<?> type) {
+            return Generated.of(type, true);
+        }
+    };
+
+    private static <T> T create(Class<T> type, Supplier<? extends T> target, Map<Method, MethodTimer> timers) {
+        checkInterface(type);
+        Generated generated = (timers == null ? LAZY : TIMED).get(type);
+        if (generated.constructor == null) {
+            Handler<T> handler = new Handler<>(type, target, timers);
+            return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, handler));
+        }
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        Map<List<Object>, Object>[] memos = new Map[generated.methods.size()];
+        LongAdder[] calls = new LongAdder[memos.length];
+        LongAdder[] nanos = new LongAdder[memos.length];
+        for (int i = 0; i < memos.length; i++) {
+            Method method = generated.methods.get(i);
+            if (isMemoized(method)) {
+                memos[i] = new ConcurrentHashMap<>();
+            }
+            if (timers != null) {
+                MethodTimer timer = timers.computeIfAbsent(method, m -> new MethodTimer());
+                calls[i] = timer.calls;
+                nanos[i] = timer.nanos;
+            }
+        }
+        try {
+            return type.cast(generated.constructor.newInstance(new LazyTarget<T>(target), memos, calls, nanos));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot create proxy for " + type.getName(), e);
+        }
+    }
+
+    private static void checkInterface(Class<?> type) {
+        if (!type.isInterface()) {
+            throw new IllegalArgumentException(type.getName() + " is not an interface");
+        }
+        for (Method method : type.getMethods()) {
+            if (method.isAnnotationPresent(Pure.class)) {
+                for (Class<?> parameter : method.getParameterTypes()) {
+                    if (parameter.isArray()) {
+                        throw new IllegalArgumentException("@Pure method " + method + " takes an array");
+                    }
+                }
+            }
+        }
+    }
+
+    static boolean isMemoized(Method method) {
+        return method.isAnnotationPresent(Pure.class) && method.getReturnType() != void.class;
+    }
+
+    // The methods a proxy implements, in the order the generated code numbers them
+    static List<Method> proxiedMethods(Class<?> type) {
+        List<Method> methods = new ArrayList<>();
+        for (Method method : type.getMethods()) {
+            if (!Modifier.isStatic(method.getModifiers())) {
+                methods.add(method);
+            }
+        }
+        return methods;
+    }
+
+    // A generated proxy class, or a null constructor if the reflective fallback is needed
+    private static final class Generated {
+        final List<Method> methods;
+        final Constructor<?> constructor;
+
+        private Generated(List<Method> methods, Constructor<?> constructor) {
+            this.methods = methods;
+            this.constructor = constructor;
+        }
+
+        // A failure is logged once per interface, since every call through the
+        // fallback is several times slower
+        static Generated of(Class<?> type, boolean timed) {
+            List<Method> methods = proxiedMethods(type);
+            JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+            if (javac == null) {
+                LOG.log(System.Logger.Level.WARNING, "No Java compiler available; using java.lang.reflect.Proxy for {0}", type.getName());
+                return new Generated(methods, null);
+            }
+            if (type.getCanonicalName() == null) {
+                LOG.log(System.Logger.Level.WARNING, "{0} has no canonical name; using java.lang.reflect.Proxy", type.getName());
+                return new Generated(methods, null);
+            }
+            try {
+                String simpleName = type.getName().substring(type.getPackageName().isEmpty() ? 0 : type.getPackageName().length() + 1)
+                        .replace('$', '_') + (timed ? "$$TimedProxy" : "$$LazyProxy");
+                String className = type.getPackageName().isEmpty() ? simpleName : type.getPackageName() + "." + simpleName;
+                byte[] bytes = compile(javac, className, source(type, simpleName, methods, timed), referencedClasses(type));
+                Class<?> proxyClass = MethodHandles.privateLookupIn(type, MethodHandles.lookup()).defineClass(bytes);
+                return new Generated(methods, proxyClass.getConstructor(Supplier.class, Map[].class, LongAdder[].class, LongAdder[].class));
+            } catch (Exception | LinkageError e) {
+                LOG.log(System.Logger.Level.WARNING, "Cannot generate a proxy class for " + type.getName() + "; using java.lang.reflect.Proxy", e);
+                return new Generated(methods, null);
+            }
+        }
+    }
+
+    // The generated class only names the interface, the types in its method
+    // signatures and JDK classes, so it compiles in any package
+    static String source(Class<?> type, String simpleName, List<Method> methods, boolean timed) {
+        String typeName = type.getCanonicalName();
+        StringBuilder java = new StringBuilder();
+        if (!type.getPackageName().isEmpty()) {
+            java.append("package ").append(type.getPackageName()).append(";\n");
+        }
+        java.append("@SuppressWarnings({\"unchecked\", \"rawtypes\"})\n");
+        java.append("public final class ").append(simpleName).append(" implements ").append(typeName).append(" {\n");
+        java.append("  private static final Object NULL = new Object();\n");
+        java.append("  private final java.util.function.Supplier<").append(typeName).append("> target;\n");
+        java.append("  private final java.util.Map[] memos;\n");
+        java.append("  private final java.util.concurrent.atomic.LongAdder[] calls, nanos;\n");
+        java.append("  public ").append(simpleName).append("(java.util.function.Supplier target, java.util.Map[] memos,"
+                + " java.util.concurrent.atomic.LongAdder[] calls, java.util.concurrent.atomic.LongAdder[] nanos) {\n"
+                + "    this.target = target; this.memos = memos; this.calls = calls; this.nanos = nanos;\n  }\n");
+        for (int i = 0; i < methods.size(); i++) {
+            Method method = methods.get(i);
+            Class<?>[] parameters = method.getParameterTypes();
+            String returnType = method.getReturnType().getCanonicalName();
+            boolean returns = method.getReturnType() != void.class;
+
+            StringBuilder declared = new StringBuilder();
+            StringBuilder passed = new StringBuilder();
+            for (int p = 0; p < parameters.length; p++) {
+                declared.append(p == 0 ? "" : ", ").append("final ").append(parameters[p].getCanonicalName()).append(" a").append(p);
+                passed.append(p == 0 ? "" : ", ").append('a').append(p);
+            }
+            String direct = "target.get()." + method.getName() + "(" + passed + ")";
+
+            java.append("  public ").append(returnType).append(' ').append(method.getName()).append('(').append(declared).append(')');
+            Class<?>[] exceptions = method.getExceptionTypes();
+            for (int e = 0; e < exceptions.length; e++) {
+                java.append(e == 0 ? " throws " : ", ").append(exceptions[e].getCanonicalName());
+            }
+            java.append(" {\n");
+
+            String body;
+            if (isMemoized(method)) {
+                body = "java.util.List key = java.util.Arrays.asList(new Object[] {" + passed + "}); "
+                        + "Object result = memos[" + i + "].get(key); "
+                        + "if (result == null) { result = " + direct + "; memos[" + i + "].putIfAbsent(key, result == null ? NULL : result); } "
+                        + "return (" + returnType + ") (result == NULL ? null : result);";
+            } else {
+                body = (returns ? "return " : "") + direct + ";";
+            }
+            if (timed) {
+                body = "long start = System.nanoTime(); try { " + body + " } finally { calls[" + i + "].increment(); nanos[" + i
+                        + "].add(System.nanoTime() - start); }";
+            }
+            java.append("    ").append(body).append("\n  }\n");
+        }
+        return java.append("}\n").toString();
+    }
+
+    // Every non-JDK class the compiler may read while compiling the proxy: the
+    // interface, the types in its signatures, and their supertypes and outer classes
+    static Map<String, Class<?>> referencedClasses(Class<?> type) {
+        Map<String, Class<?>> classes = new HashMap<>();
+        addClass(type, classes);
+        for (Method method : type.getMethods()) {
+            addType(method.getGenericReturnType(), classes, new HashSet<>());
+            for (Type parameter : method.getGenericParameterTypes()) {
+                addType(parameter, classes, new HashSet<>());
+            }
+            for (Type exception : method.getGenericExceptionTypes()) {
+                addType(exception, classes, new HashSet<>());
+            }
+            for (Annotation annotation : method.getAnnotations()) {
+                addClass(annotation.annotationType(), classes);
+            }
+        }
+        return classes;
+    }
+
+    private static void addType(Type type, Map<String, Class<?>> classes, Set<TypeVariable<?>> seen) {
+        if (type instanceof Class) {
+            addClass((Class<?>) type, classes);
+        } else if (type instanceof ParameterizedType) {
+            ParameterizedType parameterized = (ParameterizedType) type;
+            addType(parameterized.getRawType(), classes, seen);
+            for (Type argument : parameterized.getActualTypeArguments()) {
+                addType(argument, classes, seen);
+            }
+        } else if (type instanceof GenericArrayType) {
+            addType(((GenericArrayType) type).getGenericComponentType(), classes, seen);
+        } else if (type instanceof WildcardType) {
+            for (Type bound : ((WildcardType) type).getUpperBounds()) {
+                addType(bound, classes, seen);
+            }
+            for (Type bound : ((WildcardType) type).getLowerBounds()) {
+                addType(bound, classes, seen);
+            }
+        } else if (type instanceof TypeVariable && seen.add((TypeVariable<?>) type)) {
+            for (Type bound : ((TypeVariable<?>) type).getBounds()) {
+                addType(bound, classes, seen);
+            }
+        }
+    }
+
+    private static void addClass(Class<?> type, Map<String, Class<?>> classes) {
+        while (type.isArray()) {
+            type = type.getComponentType();
+        }
+        ClassLoader loader = type.getClassLoader();
+        // JDK classes come from the compiler's own system modules
+        if (type.isPrimitive() || loader == null || loader == ClassLoader.getPlatformClassLoader()
+                || classes.putIfAbsent(type.getName(), type) != null) {
+            return;
+        }
+        if (type.getSuperclass() != null) {
+            addClass(type.getSuperclass(), classes);
+        }
+        for (Class<?> superInterface : type.getInterfaces()) {
+            addClass(superInterface, classes);
+        }
+        if (type.getDeclaringClass() != null) {
+            addClass(type.getDeclaringClass(), classes);
+        }
+    }
+
+    // Compiles one class in memory. The class path is exactly the given classes,
+    // read through their own modules, so an interface from a plugin class loader
+    // or the module path compiles the same as one on java.class.path.
+    static byte[] compile(JavaCompiler javac, String className, String source, Map<String, Class<?>> classPath) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        JavaFileObject input = new SimpleJavaFileObject(URI.create("string:///" + className.replace('.', '/') + ".java"), JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return source;
+            }
+        };
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        JavaFileManager files = new ForwardingJavaFileManager<JavaFileManager>(javac.getStandardFileManager(diagnostics, null, null)) {
+            @Override
+            public Iterable<JavaFileObject> list(Location location, String packageName, Set<JavaFileObject.Kind> kinds, boolean recurse)
+                    throws IOException {
+                if (location != StandardLocation.CLASS_PATH) {
+                    return super.list(location, packageName, kinds, recurse);
+                }
+                List<JavaFileObject> found = new ArrayList<>();
+                if (kinds.contains(JavaFileObject.Kind.CLASS)) {
+                    for (Class<?> type : classPath.values()) {
+                        if (type.getPackageName().equals(packageName)) {
+                            found.add(new ClassFile(type));
+                        }
+                    }
+                }
+                return found;
+            }
+
+            @Override
+            public String inferBinaryName(Location location, JavaFileObject file) {
+                return file instanceof ClassFile ? ((ClassFile) file).binaryName : super.inferBinaryName(location, file);
+            }
+
+            @Override
+            public JavaFileObject getJavaFileForOutput(Location location, String name, JavaFileObject.Kind kind, FileObject sibling) {
+                return new SimpleJavaFileObject(URI.create("bytes:///" + name.replace('.', '/') + kind.extension), kind) {
+                    @Override
+                    public OutputStream openOutputStream() {
+                        return bytes;
+                    }
+                };
+            }
+        };
+        List<String> options = List.of("-proc:none", "-nowarn");
+        if (!javac.getTask(null, files, diagnostics, options, null, List.of(input)).call()) {
+            throw new IllegalStateException("Cannot compile proxy " + className + ": " + diagnostics.getDiagnostics());
+        }
+        return bytes.toByteArray();
+    }
+
+    // The class file of a loaded class, as the compiler sees it on the class path
+    private static final class ClassFile extends SimpleJavaFileObject {
+        final String binaryName;
+        private final Class<?> type;
+
+        ClassFile(Class<?> type) {
+            super(URI.create("class:///" + type.getName().replace('.', '/') + ".class"), JavaFileObject.Kind.CLASS);
+            this.binaryName = type.getName().substring(type.getPackageName().isEmpty() ? 0 : type.getPackageName().length() + 1);
+            this.type = type;
+        }
+
+        @Override
+        public InputStream openInputStream() throws IOException {
+            String resource = type.getName().replace('.', '/') + ".class";
+            InputStream in = type.getModule().getResourceAsStream(resource);
+            if (in == null && type.getClassLoader() != null) {
+                in = type.getClassLoader().getResourceAsStream(resource);
+            }
+            if (in == null) {
+                throw new IOException("Class file of " + type.getName() + " is not readable");
+            }
+            return in;
+        }
+    }
+
+    // Fallback: java.lang.reflect.Proxy with one reflective call per method call
+    private static class Handler<T> implements InvocationHandler {
+        private static final Object NULL = new Object();
+
+        private final LazyTarget<T> target;
+        private final Map<Method, MethodTimer> timers;
+        // Built once per proxy, so a call only does one map lookup before dispatching
+        private final Map<Method, Map<List<Object>, Object>> memo = new HashMap<>();
+
+        Handler(Class<T> type, Supplier<? extends T> target, Map<Method, MethodTimer> timers) {
+            this.target = new LazyTarget<>(target);
+            this.timers = timers;
+            for (Method method : type.getMethods()) {
+                if (isMemoized(method)) {
+                    memo.put(method, new ConcurrentHashMap<>());
+                }
+                if (timers != null) {
+                    timers.putIfAbsent(method, new MethodTimer());
+                }
+            }
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (method.getDeclaringClass() == Object.class) {
+                return invokeObjectMethod(proxy, method, args);
+            }
+            if (timers == null) {
+                return dispatch(method, args);
+            }
+            long start = System.nanoTime();
+            try {
+                return dispatch(method, args);
+            } finally {
+                MethodTimer timer = timers.get(method);
+                timer.calls.increment();
+                timer.nanos.add(System.nanoTime() - start);
+            }
+        }
+
+        private Object dispatch(Method method, Object[] args) throws Throwable {
+            Map<List<Object>, Object> results = memo.get(method);
+            if (results == null) {
+                return call(method, args);
+            }
+            List<Object> key = args == null ? List.of() : Arrays.asList(args);
+            Object result = results.get(key);
+            if (result == null) {
+                result = call(method, args);
+                results.putIfAbsent(key, result == null ? NULL : result);
+            }
+            return result == NULL ? null : result;
+        }
+
+        private Object call(Method method, Object[] args) throws Throwable {
+            try {
+                return method.invoke(target.get(), args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+
+        // equals/hashCode/toString act on the proxy itself so they do not force a load
+        private Object invokeObjectMethod(Object proxy, Method method, Object[] args) {
+            switch (method.getName()) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                default:
+                    return "Proxy@" + Integer.toHexString(System.identityHashCode(proxy));
+            }
+        }
+    }
+}
+
+// Client code
+public class ProxyFactoryExample {
+    public static void main(String[] args) {
+        Map<Method, MethodTimer> timers = new ConcurrentHashMap<>();
+        Image image = ProxyFactory.timed(Image.class, () -> new RealImage("example.jpg"), timers);
+
+        System.out.println("Proxy created, nothing loaded yet");
+        image.display(); // Loads the image
+        System.out.println("Width: " + image.width());
+        System.out.println("Width: " + image.width()); // Served from the memo
+        timers.forEach((method, timer) -> System.out.println(method.getName() + ": " + timer));
+
+        // An interface in a named package, loaded by its own class loader, gets a
+        // generated proxy as well
+        Class<?> area = pluginInterface();
+        Object real = Proxy.newProxyInstance(area.getClassLoader(), new Class<?>[] { area },
+                (proxy, method, arguments) -> (long) (Integer) arguments[0] * 100);
+        Object plugin = ProxyFactory.lazy(area.asSubclass(Object.class), () -> real);
+        try {
+            Object result = area.getMethod("area", int.class).invoke(plugin, 7);
+            System.out.println(plugin.getClass().getName() + " generated: " + ProxyFactory.isGenerated(plugin) + ", area(7) = " + result);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+        if (!ProxyFactory.isGenerated(plugin)) {
+            throw new IllegalStateException("Fell back to java.lang.reflect.Proxy for " + area.getName());
+        }
+
+        // Benchmark: cost per call of the generated proxy vs. the hand-written
+        // one and the java.lang.reflect.Proxy fallback
+        Image handWritten = new ProxyImage("bench.jpg");
+        Image generated = ProxyFactory.lazy(Image.class, () -> new RealImage("bench.jpg"));
+        Image reflective = ProxyFactory.reflective(Image.class, () -> new RealImage("bench.jpg"));
+        System.out.println("Generated proxy class: " + generated.getClass().getName());
+        int calls = 20_000_000;
+        // One loop per proxy, so every call site only ever sees one class
+        for (int round = 0; round < 5; round++) {
+            double manual = nanosPerCall(calls, () -> {
+                for (int i = 0; i < calls; i++) {
+                    handWritten.display();
+                }
+            });
+            double dynamic = nanosPerCall(calls, () -> {
+                for (int i = 0; i < calls; i++) {
+                    generated.display();
+                }
+            });
+            double fallback = nanosPerCall(calls, () -> {
+                for (int i = 0; i < calls; i++) {
+                    reflective.display();
+                }
+            });
+            System.out.printf("round %d: hand-written %.2f ns/call, generated %.2f ns/call, reflective %.2f ns/call%n",
+                    round, manual, dynamic, fallback);
+        }
+    }
+
+    // Compiles demo.shapes.Area and loads it in a class loader of its own, like a plugin
+    static Class<?> pluginInterface() {
+        String source = "package demo.shapes;\npublic interface Area {\n  long area(int scale) throws java.io.IOException;\n}\n";
+        byte[] bytes = ProxyFactory.compile(ToolProvider.getSystemJavaCompiler(), "demo.shapes.Area", source, Map.of());
+        ClassLoader plugin = new ClassLoader(ProxyFactoryExample.class.getClassLoader()) {
+            @Override
+            protected Class<?> findClass(String name) throws ClassNotFoundException {
+                if (!name.equals("demo.shapes.Area")) {
+                    throw new ClassNotFoundException(name);
+                }
+                return defineClass(name, bytes, 0, bytes.length);
+            }
+
+            @Override
+            public InputStream getResourceAsStream(String name) {
+                return name.equals("demo/shapes/Area.class") ? new ByteArrayInputStream(bytes) : super.getResourceAsStream(name);
+            }
+        };
+        try {
+            return plugin.loadClass("demo.shapes.Area");
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static double nanosPerCall(int calls, Runnable loop) {
+        long start = System.nanoTime();
+        loop.run();
+        return (System.nanoTime() - start) / (double) calls;
+    }
+}
@@ -0,0 +1,144 @@
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+// Table-driven state machine. In the first example every transition does
+// context.setState(new ConcreteStateB()), so each request allocates a state
+// object. Here the states and events are enum constants, and all transitions
+// live in a (state x event) table built once up front. Firing an event is an
+// array lookup plus an optional action; nothing is allocated.
+
+// Events the context reacts to
+enum Event {
+    REQUEST, RESET
+}
+
+// States, one constant each instead of a new object per transition
+enum ConcreteState {
+    A, B
+}
+
+// Runs when a transition is taken
+interface Action<S, E> {
+    void run(S from, E event, S to);
+}
+
+final class StateMachine<S extends Enum<S>, E extends Enum<E>> {
+    private final S[] states;
+    private final int eventCount;
+    // next[state * eventCount + event] is the ordinal of the next state, -1 if the event is ignored
+    private final int[] next;
+    private final Action<S, E>[] actions;
+    private S current;
+
+    private StateMachine(Builder<S, E> builder) {
+        this.states = builder.states;
+        this.eventCount = builder.eventCount;
+        this.next = builder.next.clone();
+        this.actions = builder.actions.clone();
+        this.current = builder.initial;
+    }
+
+    public static <S extends Enum<S>, E extends Enum<E>> Builder<S, E> builder(Class<S> stateType, Class<E> eventType, S initial) {
+        return new Builder<>(stateType, eventType, initial);
+    }
+
+    // Returns false if the current state ignores the event
+    public boolean fire(E event) {
+        int index = current.ordinal() * eventCount + event.ordinal();
+        int target = next[index];
+        if (target < 0) {
+            return false;
+        }
+        S from = current;
+        current = states[target];
+        Action<S, E> action = actions[index];
+        if (action != null) {
+            action.run(from, event, current);
+        }
+        return true;
+    }
+
+    public S getState() {
+        return current;
+    }
+
+    public static final class Builder<S extends Enum<S>, E extends Enum<E>> {
+        private final S[] states;
+        private final int eventCount;
+        private final int[] next;
+        private final Action<S, E>[] actions;
+        private final S initial;
+
+        @SuppressWarnings("unchecked")
+        private Builder(Class<S> stateType, Class<E> eventType, S initial) {
+            this.states = stateType.getEnumConstants();
+            this.eventCount = eventType.getEnumConstants().length;
+            this.next = new int[states.length * eventCount];
+            Arrays.fill(next, -1);
+            this.actions = (Action<S, E>[]) new Action<?, ?>[next.length];
+            this.initial = initial;
+        }
+
+        public Builder<S, E> on(S from, E event, S to) {
+            return on(from, event, to, null);
+        }
+
+        public Builder<S, E> on(S from, E event, S to, Action<S, E> action) {
+            int index = from.ordinal() * eventCount + event.ordinal();
+            next[index] = to.ordinal();
+            actions[index] = action;
+            return this;
+        }
+
+        public StateMachine<S, E> build() {
+            return new StateMachine<>(this);
+        }
+    }
+}
+
+// Client code
+public class TableStateMachineExample {
+    public static void main(String[] args) {
+        // Same behaviour as the first example: A and B alternate on every request
+        StateMachine<ConcreteState, Event> context = StateMachine.builder(ConcreteState.class, Event.class, ConcreteState.A)
+                .on(ConcreteState.A, Event.REQUEST, ConcreteState.B, (from, event, to) -> System.out.println("Handling State A"))
+                .on(ConcreteState.B, Event.REQUEST, ConcreteState.A, (from, event, to) -> System.out.println("Handling State B"))
+                .on(ConcreteState.B, Event.RESET, ConcreteState.A)
+                .build();
+
+        context.fire(Event.REQUEST); // Output: Handling State A
+        context.fire(Event.REQUEST); // Output: Handling State B
+        context.fire(Event.REQUEST); // Output: Handling State A
+        context.fire(Event.RESET);   // back to A, no output
+        System.out.println("Current state: " + context.getState());
+
+        // Steady-state benchmark: bytes allocated per transition should be 0
+        long[] handled = new long[1];
+        StateMachine<ConcreteState, Event> machine = StateMachine.builder(ConcreteState.class, Event.class, ConcreteState.A)
+                .on(ConcreteState.A, Event.REQUEST, ConcreteState.B, (from, event, to) -> handled[0]++)
+                .on(ConcreteState.B, Event.REQUEST, ConcreteState.A, (from, event, to) -> handled[0]++)
+                .build();
+        long transitions = args.length > 0 ? Long.parseLong(args[0]) : 100_000_000;
+        for (int round = 0; round < 3; round++) {
+            long allocatedBefore = allocatedBytes();
+            long start = System.nanoTime();
+            for (long i = 0; i < transitions; i++) {
+                machine.fire(Event.REQUEST);
+            }
+            long nanos = System.nanoTime() - start;
+            long allocated = allocatedBytes() - allocatedBefore;
+            System.out.printf("round %d: %.2f ns per transition, %.4f bytes allocated per transition%n",
+                    round, (double) nanos / transitions, (double) allocated / transitions);
+        }
+        System.out.println("Transitions handled: " + handled[0]);
+    }
+
+    // HotSpot only; returns 0 elsewhere
+    static long allocatedBytes() {
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                    .getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+}
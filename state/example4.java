@@ -0,0 +1,495 @@
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Thread-safe version of the ATM from example2.java. Many machines share one
+// cash vault, and several threads may press buttons on the same machine.
+// The current state is an AtomicReference and every transition is a
+// compareAndSet from the state the handler was called in, so two threads can
+// never both act on the same state. Cash leaves the vault through a CAS loop
+// that checks and subtracts in one step, so the vault can never be overdrawn.
+
+public interface ATMState {
+
+	// Different states expected
+	// HasCard, NoCard, HasPin, NoCash
+
+	void insertCard();
+
+	void ejectCard();
+
+	void insertPin(int pinEntered);
+
+	void requestCash(int cashToWithdraw);
+
+}
+
+public class CashVault {
+
+	private final AtomicLong cash;
+
+	public CashVault(long initialCash){
+
+		cash = new AtomicLong(initialCash);
+
+	}
+
+	// Takes the amount out only if it is all there
+
+	public boolean tryWithdraw(int amount){
+
+		if(amount <= 0){
+
+			throw new IllegalArgumentException("Amount must be positive: " + amount);
+
+		}
+
+		long available;
+
+		do {
+
+			available = cash.get();
+
+			if(amount > available){
+
+				return false;
+
+			}
+
+		} while(!cash.compareAndSet(available, available - amount));
+
+		return true;
+
+	}
+
+	// An operator puts more cash in
+
+	public void deposit(long amount){
+
+		if(amount <= 0){
+
+			throw new IllegalArgumentException("Amount must be positive: " + amount);
+
+		}
+
+		cash.addAndGet(amount);
+
+	}
+
+	public long getCash() { return cash.get(); }
+
+	public boolean isEmpty() { return cash.get() <= 0; }
+
+}
+
+public class ATMMachine {
+
+	final ATMState hasCard;
+	final ATMState noCard;
+	final ATMState hasCorrectPin;
+	final ATMState atmOutOfMoney;
+
+	private final AtomicReference<ATMState> atmState;
+
+	final CashVault vault;
+
+	// Messages are counted instead of printed when verbose is false
+	private final boolean verbose;
+	final AtomicLong messages = new AtomicLong();
+
+	// Cash this machine has handed out, kept to check the vault's books
+	final AtomicLong cashDispensed = new AtomicLong();
+	final AtomicLong withdrawals = new AtomicLong();
+
+	public ATMMachine(CashVault vault, boolean verbose){
+
+		this.vault = vault;
+		this.verbose = verbose;
+
+		hasCard = new HasCard(this);
+		noCard = new NoCard(this);
+		hasCorrectPin = new HasPin(this);
+		atmOutOfMoney = new NoCash(this);
+
+		atmState = new AtomicReference<>(vault.isEmpty() ? atmOutOfMoney : noCard);
+
+	}
+
+	// Moves from expected to newATMState only if no other thread got there first
+
+	boolean transition(ATMState expected, ATMState newATMState){
+
+		return atmState.compareAndSet(expected, newATMState);
+
+	}
+
+	void say(String message){
+
+		messages.incrementAndGet();
+
+		if(verbose){
+
+			System.out.println(message);
+
+		}
+
+	}
+
+	public void insertCard() {
+
+		atmState.get().insertCard();
+
+	}
+
+	public void ejectCard() {
+
+		atmState.get().ejectCard();
+
+	}
+
+	public void requestCash(int cashToWithdraw) {
+
+		atmState.get().requestCash(cashToWithdraw);
+
+	}
+
+	public void insertPin(int pinEntered){
+
+		atmState.get().insertPin(pinEntered);
+
+	}
+
+	public ATMState getATMState() { return atmState.get(); }
+
+	public ATMState getYesCardState() { return hasCard; }
+	public ATMState getNoCardState() { return noCard; }
+	public ATMState getHasPin() { return hasCorrectPin; }
+	public ATMState getNoCashState() { return atmOutOfMoney; }
+
+}
+
+public class HasCard implements ATMState {
+
+	final ATMMachine atmMachine;
+
+	public HasCard(ATMMachine newATMMachine){
+
+		atmMachine = newATMMachine;
+
+	}
+
+	public void insertCard() {
+
+		atmMachine.say("You can only insert one card at a time");
+
+	}
+
+	public void ejectCard() {
+
+		if(atmMachine.transition(this, atmMachine.getNoCardState())){
+
+			atmMachine.say("Your card is ejected");
+
+		}
+
+	}
+
+	public void requestCash(int cashToWithdraw) {
+
+		atmMachine.say("You have not entered your PIN");
+
+	}
+
+	public void insertPin(int pinEntered) {
+
+		if(pinEntered == 1234){
+
+			if(atmMachine.transition(this, atmMachine.getHasPin())){
+
+				atmMachine.say("You entered the correct PIN");
+
+			}
+
+		} else if(atmMachine.transition(this, atmMachine.getNoCardState())){
+
+			atmMachine.say("You entered the wrong PIN");
+			atmMachine.say("Your card is ejected");
+
+		}
+	}
+}
+
+public class NoCard implements ATMState {
+
+	final ATMMachine atmMachine;
+
+	public NoCard(ATMMachine newATMMachine){
+
+		atmMachine = newATMMachine;
+
+	}
+
+	public void insertCard() {
+
+		if(atmMachine.vault.isEmpty()){
+
+			if(atmMachine.transition(this, atmMachine.getNoCashState())){
+
+				atmMachine.say("We don't have any money");
+
+			}
+
+		} else if(atmMachine.transition(this, atmMachine.getYesCardState())){
+
+			atmMachine.say("Please enter your pin");
+
+		} else {
+
+			atmMachine.say("Someone else is using this machine");
+
+		}
+
+	}
+
+	public void ejectCard() {
+
+		atmMachine.say("You didn't enter a card");
+
+	}
+
+	public void requestCash(int cashToWithdraw) {
+
+		atmMachine.say("You have not entered your card");
+
+	}
+
+	public void insertPin(int pinEntered) {
+
+		atmMachine.say("You have not entered your card");
+
+	}
+}
+
+public class HasPin implements ATMState {
+
+	final ATMMachine atmMachine;
+
+	public HasPin(ATMMachine newATMMachine){
+
+		atmMachine = newATMMachine;
+
+	}
+
+	public void insertCard() {
+
+		atmMachine.say("You already entered a card");
+
+	}
+
+	public void ejectCard() {
+
+		if(atmMachine.transition(this, atmMachine.getNoCardState())){
+
+			atmMachine.say("Your card is ejected");
+
+		}
+
+	}
+
+	// The session is claimed by leaving HasPin first, so a second request
+	// racing with this one cannot withdraw again on the same PIN
+
+	public void requestCash(int cashToWithdraw) {
+
+		if(!atmMachine.transition(this, atmMachine.getNoCardState())){
+
+			atmMachine.say("This request is already being handled");
+			return;
+
+		}
+
+		if(atmMachine.vault.tryWithdraw(cashToWithdraw)){
+
+			atmMachine.cashDispensed.addAndGet(cashToWithdraw);
+			atmMachine.withdrawals.incrementAndGet();
+			atmMachine.say(cashToWithdraw + " is provided by the machine");
+
+		} else {
+
+			atmMachine.say("You don't have that much cash available");
+
+		}
+
+		atmMachine.say("Your card is ejected");
+
+		if(atmMachine.vault.isEmpty()){
+
+			atmMachine.transition(atmMachine.getNoCardState(), atmMachine.getNoCashState());
+
+		}
+	}
+
+	public void insertPin(int pinEntered) {
+
+		atmMachine.say("You already entered a PIN");
+
+	}
+}
+
+public class NoCash implements ATMState {
+
+	final ATMMachine atmMachine;
+
+	public NoCash(ATMMachine newATMMachine){
+
+		atmMachine = newATMMachine;
+
+	}
+
+	// The vault is shared, so it may have been refilled since
+
+	public void insertCard() {
+
+		if(!atmMachine.vault.isEmpty() && atmMachine.transition(this, atmMachine.getNoCardState())){
+
+			atmMachine.insertCard();
+			return;
+
+		}
+
+		atmMachine.say("We don't have any money");
+		atmMachine.say("Your card is ejected");
+
+	}
+
+	public void ejectCard() {
+
+		atmMachine.say("We don't have any money");
+		atmMachine.say("There is no card to eject");
+
+	}
+
+	public void requestCash(int cashToWithdraw) {
+
+		atmMachine.say("We don't have any money");
+
+	}
+
+	public void insertPin(int pinEntered) {
+
+		atmMachine.say("We don't have any money");
+
+	}
+}
+
+public class TestConcurrentATMMachine {
+
+	public static void main(String[] args) throws InterruptedException {
+
+		ATMMachine atmMachine = new ATMMachine(new CashVault(2000), true);
+
+		atmMachine.insertCard();
+
+		atmMachine.insertPin(1234);
+
+		atmMachine.requestCash(2000);
+
+		atmMachine.insertCard();
+
+		// Stress test: many threads, two threads per machine, one shared vault.
+		// The vault only holds about 2,000 withdrawals and is refilled whenever a
+		// customer finds it empty, so withdrawals race at the empty mark for the
+		// whole run.
+
+		int threads = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+		int sessionsPerThread = args.length > 1 ? Integer.parseInt(args[1]) : 200_000;
+		long initialCash = 100_000;
+		AtomicLong deposited = new AtomicLong();
+
+		CashVault vault = new CashVault(initialCash);
+		ATMMachine[] machines = new ATMMachine[threads / 2 + 1];
+
+		for(int i = 0; i < machines.length; i++){
+
+			machines[i] = new ATMMachine(vault, false);
+
+		}
+
+		CountDownLatch start = new CountDownLatch(1);
+		CountDownLatch done = new CountDownLatch(threads);
+
+		for(int t = 0; t < threads; t++){
+
+			ATMMachine machine = machines[t / 2];
+
+			new Thread(() -> {
+
+				try {
+
+					start.await();
+
+					for(int s = 0; s < sessionsPerThread; s++){
+
+						int amount = ThreadLocalRandom.current().nextInt(1, 100);
+
+						if(vault.isEmpty()){
+
+							vault.deposit(initialCash);
+							deposited.addAndGet(initialCash);
+
+						}
+
+						machine.insertCard();
+						machine.insertPin(1234);
+
+						machine.requestCash(amount);
+						machine.ejectCard();
+
+					}
+
+				} catch (InterruptedException e) {
+
+					Thread.currentThread().interrupt();
+
+				} finally {
+
+					done.countDown();
+
+				}
+
+			}).start();
+
+		}
+
+		long begin = System.nanoTime();
+		start.countDown();
+		done.await();
+		long millis = (System.nanoTime() - begin) / 1_000_000;
+
+		long remaining = vault.getCash();
+		long dispensed = 0;
+		long withdrawals = 0;
+
+		for(ATMMachine machine : machines){
+
+			dispensed += machine.cashDispensed.get();
+			withdrawals += machine.withdrawals.get();
+
+		}
+
+		long sessions = (long) threads * sessionsPerThread;
+		long paidIn = initialCash + deposited.get();
+
+		System.out.println(threads + " threads, " + sessions + " sessions in " + millis + " ms");
+		System.out.println("Withdrawals: " + withdrawals + " (" + 100 * withdrawals / sessions + "% of sessions), refills: " + deposited.get() / initialCash);
+		System.out.println("Cash paid in: " + paidIn + ", dispensed: " + dispensed + ", left in the vault: " + remaining);
+
+		if(remaining < 0 || dispensed + remaining != paidIn){
+
+			throw new IllegalStateException("Vault books do not balance: " + dispensed + " + " + remaining + " != " + paidIn);
+
+		}
+
+	}
+}
@@ -0,0 +1,727 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Fleet simulator for the ATM from example2.java. It drives up to millions of
+// machines through synthetic customer sessions on a thread pool.
+//
+// Two changes let it scale. First, the states are shared flyweights: a state
+// gets the machine as a parameter instead of keeping a pointer to it, so a
+// machine is one small object instead of five. Second, the machines are split
+// into shards, and only one task drives a shard at a time. No machine is ever
+// touched by two threads at once, so nothing needs locking. Messages go to
+// per-shard counters instead of System.out, and the counters are merged once
+// the run is over.
+//
+// Time inside a session is simulated: every machine has its own clock, and
+// customers take a few seconds to type a PIN or choose an amount. Dwell
+// times are measured on that clock. Session latency is the real time the
+// simulator spent running the session's calls.
+
+// Everything an ATM can say; counted, not printed
+
+enum Message {
+
+	PLEASE_ENTER_PIN, ONE_CARD_AT_A_TIME, CARD_EJECTED, NO_CARD_ENTERED,
+	PIN_NOT_ENTERED, CARD_NOT_ENTERED, CORRECT_PIN, WRONG_PIN,
+	CARD_ALREADY_ENTERED, PIN_ALREADY_ENTERED, NOT_ENOUGH_CASH,
+	CASH_PROVIDED, NO_MONEY, NO_CARD_TO_EJECT
+
+}
+
+public interface ATMState {
+
+	// Different states expected
+	// HasCard, NoCard, HasPin, NoCash
+
+	// Index into the per-state dwell counters
+
+	int id();
+
+	void insertCard(ATMMachine atmMachine);
+
+	void ejectCard(ATMMachine atmMachine);
+
+	void insertPin(ATMMachine atmMachine, int pinEntered);
+
+	void requestCash(ATMMachine atmMachine, int cashToWithdraw);
+
+}
+
+public class ATMMachine {
+
+	// One instance of each state for the whole fleet
+
+	static final ATMState hasCard = new HasCard();
+	static final ATMState noCard = new NoCard();
+	static final ATMState hasCorrectPin = new HasPin();
+	static final ATMState atmOutOfMoney = new NoCash();
+
+	static final int STATE_COUNT = 4;
+
+	ATMState atmState;
+
+	int cashInMachine;
+
+	// Simulated time in ms: now, and when the current state was entered
+	long clock;
+	long stateEnteredAt;
+
+	// Counters of the shard this machine belongs to
+	final SimRecorder recorder;
+
+	public ATMMachine(SimRecorder recorder, int cashInMachine){
+
+		this.recorder = recorder;
+		this.cashInMachine = cashInMachine;
+
+		atmState = cashInMachine <= 0 ? atmOutOfMoney : noCard;
+
+	}
+
+	void setATMState(ATMState newATMState){
+
+		recorder.leftState(atmState.id(), clock - stateEnteredAt);
+		stateEnteredAt = clock;
+		atmState = newATMState;
+
+	}
+
+	void say(Message message){
+
+		recorder.messages[message.ordinal()]++;
+
+	}
+
+	public void setCashInMachine(int newCashInMachine){
+
+		cashInMachine = newCashInMachine;
+
+	}
+
+	// An operator fills an empty machine up again
+
+	public void refill(int cash){
+
+		setCashInMachine(cash);
+
+		if(atmState == atmOutOfMoney){
+
+			setATMState(noCard);
+
+		}
+
+	}
+
+	public void insertCard() {
+
+		atmState.insertCard(this);
+
+	}
+
+	public void ejectCard() {
+
+		atmState.ejectCard(this);
+
+	}
+
+	public void requestCash(int cashToWithdraw) {
+
+		atmState.requestCash(this, cashToWithdraw);
+
+	}
+
+	public void insertPin(int pinEntered){
+
+		atmState.insertPin(this, pinEntered);
+
+	}
+
+	public ATMState getATMState() { return atmState; }
+
+	public ATMState getYesCardState() { return hasCard; }
+	public ATMState getNoCardState() { return noCard; }
+	public ATMState getHasPin() { return hasCorrectPin; }
+	public ATMState getNoCashState() { return atmOutOfMoney; }
+
+}
+
+public class HasCard implements ATMState {
+
+	public int id() { return 0; }
+
+	public void insertCard(ATMMachine atmMachine) {
+
+		atmMachine.say(Message.ONE_CARD_AT_A_TIME);
+
+	}
+
+	public void ejectCard(ATMMachine atmMachine) {
+
+		atmMachine.say(Message.CARD_EJECTED);
+		atmMachine.setATMState(atmMachine.getNoCardState());
+
+	}
+
+	public void requestCash(ATMMachine atmMachine, int cashToWithdraw) {
+
+		atmMachine.say(Message.PIN_NOT_ENTERED);
+
+	}
+
+	public void insertPin(ATMMachine atmMachine, int pinEntered) {
+
+		if(pinEntered == 1234){
+
+			atmMachine.say(Message.CORRECT_PIN);
+			atmMachine.setATMState(atmMachine.getHasPin());
+
+		} else {
+
+			atmMachine.say(Message.WRONG_PIN);
+			atmMachine.say(Message.CARD_EJECTED);
+			atmMachine.setATMState(atmMachine.getNoCardState());
+
+		}
+	}
+}
+
+public class NoCard implements ATMState {
+
+	public int id() { return 1; }
+
+	public void insertCard(ATMMachine atmMachine) {
+
+		atmMachine.say(Message.PLEASE_ENTER_PIN);
+		atmMachine.setATMState(atmMachine.getYesCardState());
+
+	}
+
+	public void ejectCard(ATMMachine atmMachine) {
+
+		atmMachine.say(Message.NO_CARD_ENTERED);
+
+	}
+
+	public void requestCash(ATMMachine atmMachine, int cashToWithdraw) {
+
+		atmMachine.say(Message.CARD_NOT_ENTERED);
+
+	}
+
+	public void insertPin(ATMMachine atmMachine, int pinEntered) {
+
+		atmMachine.say(Message.CARD_NOT_ENTERED);
+
+	}
+}
+
+public class HasPin implements ATMState {
+
+	public int id() { return 2; }
+
+	public void insertCard(ATMMachine atmMachine) {
+
+		atmMachine.say(Message.CARD_ALREADY_ENTERED);
+
+	}
+
+	public void ejectCard(ATMMachine atmMachine) {
+
+		atmMachine.say(Message.CARD_EJECTED);
+		atmMachine.setATMState(atmMachine.getNoCardState());
+
+	}
+
+	public void requestCash(ATMMachine atmMachine, int cashToWithdraw) {
+
+		if(cashToWithdraw > atmMachine.cashInMachine){
+
+			atmMachine.say(Message.NOT_ENOUGH_CASH);
+			atmMachine.say(Message.CARD_EJECTED);
+			atmMachine.setATMState(atmMachine.getNoCardState());
+
+		} else {
+
+			atmMachine.say(Message.CASH_PROVIDED);
+			atmMachine.recorder.cashDispensed += cashToWithdraw;
+			atmMachine.setCashInMachine(atmMachine.cashInMachine - cashToWithdraw);
+
+			atmMachine.say(Message.CARD_EJECTED);
+
+			if(atmMachine.cashInMachine <= 0){
+
+				atmMachine.setATMState(atmMachine.getNoCashState());
+
+			} else {
+
+				atmMachine.setATMState(atmMachine.getNoCardState());
+
+			}
+		}
+	}
+
+	public void insertPin(ATMMachine atmMachine, int pinEntered) {
+
+		atmMachine.say(Message.PIN_ALREADY_ENTERED);
+
+	}
+}
+
+public class NoCash implements ATMState {
+
+	public int id() { return 3; }
+
+	public void insertCard(ATMMachine atmMachine) {
+
+		atmMachine.say(Message.NO_MONEY);
+		atmMachine.say(Message.CARD_EJECTED);
+
+	}
+
+	public void ejectCard(ATMMachine atmMachine) {
+
+		atmMachine.say(Message.NO_MONEY);
+		atmMachine.say(Message.NO_CARD_TO_EJECT);
+
+	}
+
+	public void requestCash(ATMMachine atmMachine, int cashToWithdraw) {
+
+		atmMachine.say(Message.NO_MONEY);
+
+	}
+
+	public void insertPin(ATMMachine atmMachine, int pinEntered) {
+
+		atmMachine.say(Message.NO_MONEY);
+
+	}
+}
+
+// Log-linear histogram of nanosecond latencies: 8 buckets per power of two,
+// so any value is reported within 12.5%. Recording is an array increment.
+
+public class LatencyHistogram {
+
+	private final long[] counts = new long[62 * 8];
+	private long total;
+	private long max;
+
+	public void record(long nanos){
+
+		long value = Math.max(0, nanos);
+		counts[bucket(value)]++;
+		total++;
+		max = Math.max(max, value);
+
+	}
+
+	private static int bucket(long value){
+
+		if(value < 8){
+
+			return (int) value;
+
+		}
+
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int sub = (int) (value >>> (exponent - 3)) & 7;
+		return (exponent - 2) * 8 + sub;
+
+	}
+
+	// Smallest value that lands in the bucket
+
+	private static long lowerBound(int bucket){
+
+		if(bucket < 8){
+
+			return bucket;
+
+		}
+
+		int exponent = bucket / 8 + 2;
+		return (long) (8 + bucket % 8) << (exponent - 3);
+
+	}
+
+	public void reset(){
+
+		java.util.Arrays.fill(counts, 0);
+		total = max = 0;
+
+	}
+
+	public void merge(LatencyHistogram other){
+
+		for(int i = 0; i < counts.length; i++){
+
+			counts[i] += other.counts[i];
+
+		}
+
+		total += other.total;
+		max = Math.max(max, other.max);
+
+	}
+
+	public long percentile(double percent){
+
+		long rank = (long) Math.ceil(total * percent / 100);
+		long seen = 0;
+
+		for(int i = 0; i < counts.length; i++){
+
+			seen += counts[i];
+
+			if(seen >= rank && seen > 0){
+
+				return lowerBound(i);
+
+			}
+
+		}
+
+		return max;
+
+	}
+
+	public long getMax() { return max; }
+
+}
+
+// Counters for one shard. Only the thread driving the shard writes them.
+
+public class SimRecorder {
+
+	final long[] messages = new long[Message.values().length];
+	final long[] dwellMillis = new long[ATMMachine.STATE_COUNT];
+	final long[] stateExits = new long[ATMMachine.STATE_COUNT];
+	final LatencyHistogram latency = new LatencyHistogram();
+
+	long sessions;
+	long refills;
+	long cashDispensed;
+
+	void leftState(int state, long dwell){
+
+		dwellMillis[state] += dwell;
+		stateExits[state]++;
+
+	}
+
+	void reset(){
+
+		java.util.Arrays.fill(messages, 0);
+		java.util.Arrays.fill(dwellMillis, 0);
+		java.util.Arrays.fill(stateExits, 0);
+		latency.reset();
+		sessions = refills = cashDispensed = 0;
+
+	}
+
+	void merge(SimRecorder other){
+
+		for(int i = 0; i < messages.length; i++){
+
+			messages[i] += other.messages[i];
+
+		}
+
+		for(int i = 0; i < dwellMillis.length; i++){
+
+			dwellMillis[i] += other.dwellMillis[i];
+			stateExits[i] += other.stateExits[i];
+
+		}
+
+		latency.merge(other.latency);
+		sessions += other.sessions;
+		refills += other.refills;
+		cashDispensed += other.cashDispensed;
+
+	}
+
+}
+
+// Customer behaviour; all times are simulated milliseconds
+
+public class Workload {
+
+	int initialCash = 20_000;
+	double wrongPinRate = 0.05;
+	int meanIdleMillis = 600_000;
+	int meanPinMillis = 6_000;
+	int meanAmountMillis = 9_000;
+	int refillMillis = 1_800_000;
+
+	// Amounts are 20 to 400 in steps of 20
+
+	int amount(SplittableRandom random){
+
+		return 20 * (1 + random.nextInt(20));
+
+	}
+
+	// Exponentially distributed delay with the given mean
+
+	long delay(SplittableRandom random, int meanMillis){
+
+		return (long) (-meanMillis * Math.log(1 - random.nextDouble()));
+
+	}
+
+}
+
+public class FleetSimulator {
+
+	private final List<ATMMachine[]> shards = new ArrayList<>();
+	private final List<SimRecorder> recorders = new ArrayList<>();
+	private final Workload workload;
+
+	// Uses at most one shard per machine, so no shard is empty
+
+	public FleetSimulator(int machines, int shardCount, Workload workload){
+
+		if(machines <= 0 || shardCount <= 0){
+
+			throw new IllegalArgumentException("Need at least one machine and one shard");
+
+		}
+
+		this.workload = workload;
+		shardCount = Math.min(shardCount, machines);
+
+		for(int s = 0; s < shardCount; s++){
+
+			int size = machines / shardCount + (s < machines % shardCount ? 1 : 0);
+			SimRecorder recorder = new SimRecorder();
+			ATMMachine[] shard = new ATMMachine[size];
+
+			for(int i = 0; i < size; i++){
+
+				shard[i] = new ATMMachine(recorder, workload.initialCash);
+
+			}
+
+			shards.add(shard);
+			recorders.add(recorder);
+
+		}
+
+	}
+
+	// Runs the given number of sessions spread over all shards and returns
+	// the merged counters of this run. The caller owns the pool.
+
+	public SimRecorder run(ExecutorService pool, long sessions, long seed) throws Exception {
+
+		List<Future<?>> running = new ArrayList<>();
+
+		for(int s = 0; s < shards.size(); s++){
+
+			ATMMachine[] shard = shards.get(s);
+			SimRecorder recorder = recorders.get(s);
+			recorder.reset();
+			long shardSessions = sessions / shards.size() + (s < sessions % shards.size() ? 1 : 0);
+			SplittableRandom random = new SplittableRandom(seed * 31 + s);
+
+			running.add(pool.submit(() -> runShard(shard, recorder, shardSessions, random)));
+
+		}
+
+		// Future.get() also makes the shard counters visible to this thread.
+		// A failed shard cancels the rest and fails the run.
+
+		try {
+
+			for(Future<?> shard : running){
+
+				shard.get();
+
+			}
+
+		} catch (ExecutionException e) {
+
+			for(Future<?> shard : running){
+
+				shard.cancel(true);
+
+			}
+
+			throw e;
+
+		}
+
+		SimRecorder total = new SimRecorder();
+
+		for(SimRecorder recorder : recorders){
+
+			total.merge(recorder);
+
+		}
+
+		return total;
+
+	}
+
+	private void runShard(ATMMachine[] shard, SimRecorder recorder, long sessions, SplittableRandom random){
+
+		for(long s = 0; s < sessions; s++){
+
+			ATMMachine machine = shard[random.nextInt(shard.length)];
+
+			long start = System.nanoTime();
+			runSession(machine, recorder, random);
+			recorder.latency.record(System.nanoTime() - start);
+			recorder.sessions++;
+
+		}
+
+	}
+
+	private void runSession(ATMMachine machine, SimRecorder recorder, SplittableRandom random){
+
+		machine.clock += workload.delay(random, workload.meanIdleMillis);
+
+		if(machine.getATMState() == machine.getNoCashState()){
+
+			// The customer finds an empty machine and the operator refills it
+
+			machine.insertCard();
+			machine.clock += workload.refillMillis;
+			machine.refill(workload.initialCash);
+			recorder.refills++;
+			return;
+
+		}
+
+		machine.insertCard();
+		machine.clock += workload.delay(random, workload.meanPinMillis);
+		machine.insertPin(random.nextDouble() < workload.wrongPinRate ? 1111 : 1234);
+
+		if(machine.getATMState() == machine.getHasPin()){
+
+			machine.clock += workload.delay(random, workload.meanAmountMillis);
+			machine.requestCash(workload.amount(random));
+
+		}
+
+		if(machine.getATMState() == machine.getYesCardState() || machine.getATMState() == machine.getHasPin()){
+
+			machine.ejectCard();
+
+		}
+
+	}
+
+}
+
+public class TestFleetSimulator {
+
+	static final String[] STATE_NAMES = { "HasCard", "NoCard", "HasPin", "NoCash" };
+
+	public static void main(String[] args) throws Exception {
+
+		int machines = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+		long sessions = args.length > 1 ? Long.parseLong(args[1]) : 20_000_000;
+		int cores = Runtime.getRuntime().availableProcessors();
+
+		FleetSimulator fleet = new FleetSimulator(machines, Math.max(64, cores * 8), new Workload());
+
+		System.out.printf("%,d machines, %,d sessions per run%n", machines, sessions);
+
+		// Warm-up, then one run per pool size up to the number of cores
+
+		// Every pool is shut down even if a run fails, so an error ends the
+		// program instead of leaving its worker threads waiting
+
+		ExecutorService warmUp = Executors.newFixedThreadPool(cores);
+
+		try {
+
+			fleet.run(warmUp, sessions / 4, 0);
+
+		} finally {
+
+			warmUp.shutdownNow();
+
+		}
+
+		SimRecorder last = null;
+
+		for(int threads = 1; ; threads = Math.min(threads * 2, cores)){
+
+			ExecutorService pool = Executors.newFixedThreadPool(threads);
+
+			long start = System.nanoTime();
+			long nanos;
+
+			try {
+
+				last = fleet.run(pool, sessions, threads);
+				nanos = System.nanoTime() - start;
+
+			} finally {
+
+				pool.shutdownNow();
+
+			}
+
+			System.out.printf("%2d threads: %,.0f sessions/s%n", threads, last.sessions * 1e9 / nanos);
+
+			if(threads == cores){
+
+				break;
+
+			}
+
+		}
+
+		report(last);
+
+	}
+
+	// Report for the run on every core
+
+	static void report(SimRecorder total){
+
+		System.out.printf("%nSessions %,d, refills %,d, cash dispensed %,d%n", total.sessions, total.refills, total.cashDispensed);
+
+		System.out.println("\nDwell time per state (simulated)");
+		long allDwell = 0;
+
+		for(long dwell : total.dwellMillis){
+
+			allDwell += dwell;
+
+		}
+
+		for(int s = 0; s < STATE_NAMES.length; s++){
+
+			long exits = total.stateExits[s];
+			System.out.printf("  %-8s %5.1f%% of machine time, %,10.1f s average per visit%n", STATE_NAMES[s],
+					100.0 * total.dwellMillis[s] / Math.max(1, allDwell), exits == 0 ? 0 : total.dwellMillis[s] / 1000.0 / exits);
+
+		}
+
+		LatencyHistogram latency = total.latency;
+		System.out.printf("%nSession latency (real): p50 %,d ns, p90 %,d ns, p99 %,d ns, p99.9 %,d ns, max %,d ns%n",
+				latency.percentile(50), latency.percentile(90), latency.percentile(99), latency.percentile(99.9), latency.getMax());
+
+		System.out.println("\nMessages");
+
+		for(Message message : Message.values()){
+
+			System.out.printf("  %-22s %,d%n", message, total.messages[message.ordinal()]);
+
+		}
+
+	}
+
+}
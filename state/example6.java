@@ -0,0 +1,810 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.SplittableRandom;
+import java.util.zip.CRC32;
+
+// Event-sourced ATM fleet. In example2.java the cash and the current state
+// only live in memory and are lost on restart. Here a state never changes
+// a machine directly. It records an event (card inserted, PIN accepted, cash
+// dispensed, ...), the event is appended to a log, and then the machine
+// applies it. Replaying the log through the same apply() rebuilds every
+// machine exactly.
+//
+// The log is binary and compact: a type byte, the machine id as a varint
+// and, for cash events, the amount as a varint, so most events take 3 to 6
+// bytes. Events are packed into frames, and each frame has a length and a
+// CRC32. One write() call handles a whole frame, and fsync runs once every
+// few frames instead of once per event. A crash can only lose the frames
+// written since the last fsync. A frame that was only half written fails
+// its CRC and is cut off during recovery.
+//
+// Every so often the fleet writes a snapshot: each machine's state and
+// cash, plus the log offset the snapshot covers. Recovery loads the latest
+// snapshot and replays only the tail of the log after it.
+
+final class EventType {
+
+	static final byte CARD_INSERTED = 0;
+	static final byte PIN_ACCEPTED = 1;
+	static final byte PIN_REJECTED = 2;
+	static final byte CASH_DISPENSED = 3;
+	static final byte CASH_DENIED = 4;
+	static final byte CARD_EJECTED = 5;
+	static final byte REFILLED = 6;
+
+	private EventType() {
+	}
+
+	static boolean hasAmount(byte type){
+
+		return type == CASH_DISPENSED || type == REFILLED;
+
+	}
+
+}
+
+interface EventHandler {
+
+	void onEvent(int machine, byte type, int amount);
+
+}
+
+public class EventLog implements AutoCloseable {
+
+	// Frame header: payload length, then CRC32 of the payload
+	static final int HEADER_BYTES = 8;
+
+	// Longest possible event: type byte and two 5-byte varints
+	static final int MAX_EVENT_BYTES = 11;
+
+	private final FileChannel channel;
+	private final byte[] frame;
+	private final int framesPerSync;
+	private final CRC32 crc = new CRC32();
+
+	private int length = HEADER_BYTES;
+	private int framesSinceSync;
+	private long position;
+
+	// Opens the log for appending at validEnd; anything after it is a torn
+	// tail from a crash and is cut off
+
+	public EventLog(Path file, long validEnd, int frameBytes, int framesPerSync) throws IOException {
+
+		channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		channel.truncate(validEnd);
+		channel.position(validEnd);
+
+		frame = new byte[frameBytes];
+		this.framesPerSync = framesPerSync;
+		position = validEnd;
+
+	}
+
+	public void append(int machine, byte type, int amount) throws IOException {
+
+		if(length + MAX_EVENT_BYTES > frame.length){
+
+			writeFrame();
+
+		}
+
+		frame[length++] = type;
+		length = putVarint(frame, length, machine);
+
+		if(EventType.hasAmount(type)){
+
+			length = putVarint(frame, length, amount);
+
+		}
+
+	}
+
+	// Writes the open frame and forces the log to disk. Returns the offset
+	// everything so far is durable up to.
+
+	public long sync() throws IOException {
+
+		writeFrame();
+
+		if(framesSinceSync > 0){
+
+			channel.force(false);
+			framesSinceSync = 0;
+
+		}
+
+		return position;
+
+	}
+
+	private void writeFrame() throws IOException {
+
+		int payload = length - HEADER_BYTES;
+
+		if(payload == 0){
+
+			return;
+
+		}
+
+		crc.reset();
+		crc.update(frame, HEADER_BYTES, payload);
+
+		ByteBuffer buffer = ByteBuffer.wrap(frame, 0, length);
+		buffer.putInt(0, payload);
+		buffer.putInt(4, (int) crc.getValue());
+
+		while(buffer.hasRemaining()){
+
+			channel.write(buffer);
+
+		}
+
+		position += length;
+		length = HEADER_BYTES;
+
+		if(++framesSinceSync >= framesPerSync){
+
+			channel.force(false);
+			framesSinceSync = 0;
+
+		}
+
+	}
+
+	public void close() throws IOException {
+
+		sync();
+		channel.close();
+
+	}
+
+	static int putVarint(byte[] out, int at, int value){
+
+		while((value & ~0x7F) != 0){
+
+			out[at++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+
+		}
+
+		out[at++] = (byte) value;
+		return at;
+
+	}
+
+	// Feeds every event from offset from onwards to the handler. Stops at
+	// the first frame that is incomplete or fails its CRC and returns the
+	// offset where it stopped, which is where appending should resume.
+
+	public static long replay(Path file, long from, EventHandler handler) throws IOException {
+
+		if(!Files.exists(file)){
+
+			return 0;
+
+		}
+
+		try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)){
+
+			ByteBuffer buffer = ByteBuffer.allocate(8 << 20);
+			byte[] data = buffer.array();
+			CRC32 crc = new CRC32();
+			long offset = from;
+
+			channel.position(from);
+			buffer.flip();
+
+			while(true){
+
+				// Refill once the next frame is not completely in the buffer
+
+				if(buffer.remaining() < HEADER_BYTES || buffer.remaining() < HEADER_BYTES + buffer.getInt(buffer.position())){
+
+					buffer.compact();
+
+					while(buffer.hasRemaining() && channel.read(buffer) > 0){
+					}
+
+					buffer.flip();
+
+					if(buffer.remaining() < HEADER_BYTES){
+
+						return offset;
+
+					}
+
+				}
+
+				int start = buffer.position();
+				int payload = buffer.getInt(start);
+
+				if(payload <= 0 || payload > buffer.capacity() - HEADER_BYTES || buffer.remaining() < HEADER_BYTES + payload){
+
+					return offset;
+
+				}
+
+				crc.reset();
+				crc.update(data, start + HEADER_BYTES, payload);
+
+				if((int) crc.getValue() != buffer.getInt(start + 4)){
+
+					return offset;
+
+				}
+
+				int at = start + HEADER_BYTES;
+				int end = at + payload;
+
+				while(at < end){
+
+					byte type = data[at++];
+
+					int machine = 0;
+
+					for(int shift = 0; ; shift += 7){
+
+						byte b = data[at++];
+						machine |= (b & 0x7F) << shift;
+
+						if(b >= 0){
+
+							break;
+
+						}
+
+					}
+
+					int amount = 0;
+
+					if(EventType.hasAmount(type)){
+
+						for(int shift = 0; ; shift += 7){
+
+							byte b = data[at++];
+							amount |= (b & 0x7F) << shift;
+
+							if(b >= 0){
+
+								break;
+
+							}
+
+						}
+
+					}
+
+					handler.onEvent(machine, type, amount);
+
+				}
+
+				buffer.position(end);
+				offset += HEADER_BYTES + payload;
+
+			}
+
+		}
+
+	}
+
+}
+
+public interface ATMState {
+
+	// Different states expected
+	// HasCard, NoCard, HasPin, NoCash
+
+	// Stored in snapshots
+
+	int id();
+
+	void insertCard(ATMMachine atmMachine) throws IOException;
+
+	void ejectCard(ATMMachine atmMachine) throws IOException;
+
+	void insertPin(ATMMachine atmMachine, int pinEntered) throws IOException;
+
+	void requestCash(ATMMachine atmMachine, int cashToWithdraw) throws IOException;
+
+}
+
+public class ATMMachine {
+
+	static final ATMState hasCard = new HasCard();
+	static final ATMState noCard = new NoCard();
+	static final ATMState hasCorrectPin = new HasPin();
+	static final ATMState atmOutOfMoney = new NoCash();
+
+	static final ATMState[] BY_ID = { hasCard, noCard, hasCorrectPin, atmOutOfMoney };
+
+	final int id;
+	final ATMFleet fleet;
+
+	ATMState atmState;
+	int cashInMachine;
+
+	public ATMMachine(ATMFleet fleet, int id, int cashInMachine){
+
+		this.fleet = fleet;
+		this.id = id;
+		this.cashInMachine = cashInMachine;
+
+		atmState = cashInMachine <= 0 ? atmOutOfMoney : noCard;
+
+	}
+
+	// States call this instead of changing the machine themselves
+
+	void record(byte type, int amount) throws IOException {
+
+		fleet.record(this, type, amount);
+
+	}
+
+	// The only place the machine changes, both live and during replay
+
+	void apply(byte type, int amount){
+
+		switch(type){
+
+			case EventType.CARD_INSERTED: atmState = hasCard; break;
+			case EventType.PIN_ACCEPTED: atmState = hasCorrectPin; break;
+			case EventType.PIN_REJECTED:
+			case EventType.CASH_DENIED:
+			case EventType.CARD_EJECTED: atmState = noCard; break;
+
+			case EventType.CASH_DISPENSED:
+
+				cashInMachine -= amount;
+				atmState = cashInMachine <= 0 ? atmOutOfMoney : noCard;
+				break;
+
+			case EventType.REFILLED:
+
+				cashInMachine = amount;
+				atmState = amount <= 0 ? atmOutOfMoney : noCard;
+				break;
+
+			default: throw new IllegalStateException("Unknown event type " + type);
+
+		}
+
+	}
+
+	public void insertCard() throws IOException {
+
+		atmState.insertCard(this);
+
+	}
+
+	public void ejectCard() throws IOException {
+
+		atmState.ejectCard(this);
+
+	}
+
+	public void requestCash(int cashToWithdraw) throws IOException {
+
+		atmState.requestCash(this, cashToWithdraw);
+
+	}
+
+	public void insertPin(int pinEntered) throws IOException {
+
+		atmState.insertPin(this, pinEntered);
+
+	}
+
+	// An operator fills the machine up
+
+	public void refill(int cash) throws IOException {
+
+		record(EventType.REFILLED, cash);
+
+	}
+
+	public ATMState getATMState() { return atmState; }
+
+	public ATMState getYesCardState() { return hasCard; }
+	public ATMState getNoCardState() { return noCard; }
+	public ATMState getHasPin() { return hasCorrectPin; }
+	public ATMState getNoCashState() { return atmOutOfMoney; }
+
+}
+
+// Commands that don't change anything (e.g. ejecting with no card) are
+// not logged
+
+public class HasCard implements ATMState {
+
+	public int id() { return 0; }
+
+	public void insertCard(ATMMachine atmMachine) {
+	}
+
+	public void ejectCard(ATMMachine atmMachine) throws IOException {
+
+		atmMachine.record(EventType.CARD_EJECTED, 0);
+
+	}
+
+	public void requestCash(ATMMachine atmMachine, int cashToWithdraw) {
+	}
+
+	public void insertPin(ATMMachine atmMachine, int pinEntered) throws IOException {
+
+		atmMachine.record(pinEntered == 1234 ? EventType.PIN_ACCEPTED : EventType.PIN_REJECTED, 0);
+
+	}
+}
+
+public class NoCard implements ATMState {
+
+	public int id() { return 1; }
+
+	public void insertCard(ATMMachine atmMachine) throws IOException {
+
+		atmMachine.record(EventType.CARD_INSERTED, 0);
+
+	}
+
+	public void ejectCard(ATMMachine atmMachine) {
+	}
+
+	public void requestCash(ATMMachine atmMachine, int cashToWithdraw) {
+	}
+
+	public void insertPin(ATMMachine atmMachine, int pinEntered) {
+	}
+}
+
+public class HasPin implements ATMState {
+
+	public int id() { return 2; }
+
+	public void insertCard(ATMMachine atmMachine) {
+	}
+
+	public void ejectCard(ATMMachine atmMachine) throws IOException {
+
+		atmMachine.record(EventType.CARD_EJECTED, 0);
+
+	}
+
+	public void requestCash(ATMMachine atmMachine, int cashToWithdraw) throws IOException {
+
+		if(cashToWithdraw > atmMachine.cashInMachine){
+
+			atmMachine.record(EventType.CASH_DENIED, 0);
+
+		} else {
+
+			atmMachine.record(EventType.CASH_DISPENSED, cashToWithdraw);
+
+		}
+	}
+
+	public void insertPin(ATMMachine atmMachine, int pinEntered) {
+	}
+}
+
+public class NoCash implements ATMState {
+
+	public int id() { return 3; }
+
+	public void insertCard(ATMMachine atmMachine) {
+	}
+
+	public void ejectCard(ATMMachine atmMachine) {
+	}
+
+	public void requestCash(ATMMachine atmMachine, int cashToWithdraw) {
+	}
+
+	public void insertPin(ATMMachine atmMachine, int pinEntered) {
+	}
+}
+
+public class ATMFleet implements AutoCloseable {
+
+	static final long SNAPSHOT_MAGIC = 0x41544D534E415031L;
+
+	private final Path logFile;
+	private final Path snapshotFile;
+	private final long snapshotEvery;
+
+	final ATMMachine[] machines;
+
+	private EventLog log;
+	private long events;
+	private long eventsSinceSnapshot;
+
+	// Opens the fleet in dir, recovering it from the snapshot and the log
+	// if they exist. With useSnapshot false the whole log is replayed.
+
+	public ATMFleet(Path dir, int machineCount, int initialCash, long snapshotEvery, boolean useSnapshot) throws IOException {
+
+		Files.createDirectories(dir);
+		logFile = dir.resolve("atm.log");
+		snapshotFile = dir.resolve("atm.snapshot");
+		this.snapshotEvery = snapshotEvery;
+
+		machines = new ATMMachine[machineCount];
+
+		for(int i = 0; i < machineCount; i++){
+
+			machines[i] = new ATMMachine(this, i, initialCash);
+
+		}
+
+		long from = useSnapshot && Files.exists(snapshotFile) ? loadSnapshot() : 0;
+
+		long validEnd = EventLog.replay(logFile, from, (machine, type, amount) -> {
+
+			machines[machine].apply(type, amount);
+			events++;
+
+		});
+
+		log = new EventLog(logFile, validEnd, 64 << 10, 16);
+
+	}
+
+	void record(ATMMachine machine, byte type, int amount) throws IOException {
+
+		log.append(machine.id, type, amount);
+		machine.apply(type, amount);
+		events++;
+
+		if(++eventsSinceSnapshot >= snapshotEvery){
+
+			snapshot();
+
+		}
+
+	}
+
+	// Syncs the log, then writes every machine and the log offset to a
+	// temporary file and renames it over the old snapshot
+
+	public void snapshot() throws IOException {
+
+		long offset = log.sync();
+		Path temporary = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+
+		try(FileOutputStream file = new FileOutputStream(temporary.toFile());
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 1 << 16))){
+
+			out.writeLong(SNAPSHOT_MAGIC);
+			out.writeLong(offset);
+			out.writeLong(events);
+			out.writeInt(machines.length);
+
+			for(ATMMachine machine : machines){
+
+				out.writeByte(machine.atmState.id());
+				out.writeInt(machine.cashInMachine);
+
+			}
+
+			out.flush();
+			file.getChannel().force(true);
+
+		}
+
+		Files.move(temporary, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		eventsSinceSnapshot = 0;
+
+	}
+
+	// Returns the log offset the snapshot covers
+
+	private long loadSnapshot() throws IOException {
+
+		try(InputStream file = Files.newInputStream(snapshotFile);
+			DataInputStream in = new DataInputStream(new BufferedInputStream(file, 1 << 16))){
+
+			if(in.readLong() != SNAPSHOT_MAGIC){
+
+				throw new IOException("Not an ATM snapshot: " + snapshotFile);
+
+			}
+
+			long offset = in.readLong();
+			events = in.readLong();
+			int count = in.readInt();
+
+			if(count != machines.length){
+
+				throw new IOException("Snapshot has " + count + " machines, expected " + machines.length);
+
+			}
+
+			for(ATMMachine machine : machines){
+
+				machine.atmState = ATMMachine.BY_ID[in.readByte()];
+				machine.cashInMachine = in.readInt();
+
+			}
+
+			return offset;
+
+		}
+
+	}
+
+	public long getEvents() { return events; }
+
+	public void close() throws IOException {
+
+		log.close();
+
+	}
+
+	// Changes whenever any machine's state or cash differs
+
+	public long fingerprint(){
+
+		long hash = 1;
+
+		for(ATMMachine machine : machines){
+
+			hash = hash * 31 + machine.atmState.id();
+			hash = hash * 31 + machine.cashInMachine;
+
+		}
+
+		return hash;
+
+	}
+
+}
+
+public class TestEventSourcedATM {
+
+	public static void main(String[] args) throws IOException {
+
+		long totalEvents = args.length > 0 ? Long.parseLong(args[0]) : 100_000_000;
+		int machineCount = args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000;
+		Path dir = args.length > 2 ? Path.of(args[2]) : Files.createTempDirectory("atm-events");
+
+		try {
+
+			demo(dir.resolve("demo"));
+			benchmark(dir.resolve("fleet"), totalEvents, machineCount);
+
+		} finally {
+
+			if(args.length <= 2){
+
+				deleteRecursively(dir);
+
+			}
+
+		}
+
+	}
+
+	static void demo(Path dir) throws IOException {
+
+		try(ATMFleet fleet = new ATMFleet(dir, 2, 2000, 1_000, true)){
+
+			ATMMachine atm = fleet.machines[0];
+			atm.insertCard();
+			atm.insertPin(1234);
+			atm.requestCash(1500);
+
+			atm.insertCard();
+			atm.insertPin(1111);
+
+			fleet.machines[1].insertCard();
+
+		}
+
+		// "Restart": everything comes back from the log
+
+		try(ATMFleet fleet = new ATMFleet(dir, 2, 2000, 1_000, true)){
+
+			for(ATMMachine machine : fleet.machines){
+
+				System.out.println("Machine " + machine.id + ": " + machine.getATMState().getClass().getSimpleName()
+						+ ", cash " + machine.cashInMachine); // 0: NoCard, cash 500; 1: HasCard, cash 2000
+
+			}
+
+		}
+
+	}
+
+	static void benchmark(Path dir, long totalEvents, int machineCount) throws IOException {
+
+		int initialCash = 20_000;
+		long snapshotEvery = Math.max(1, totalEvents * 3 / 20);
+		SplittableRandom random = new SplittableRandom(1);
+
+		long start = System.nanoTime();
+		long expected;
+		long bytes;
+
+		try(ATMFleet fleet = new ATMFleet(dir, machineCount, initialCash, snapshotEvery, true)){
+
+			while(fleet.getEvents() < totalEvents){
+
+				ATMMachine atm = fleet.machines[random.nextInt(machineCount)];
+
+				if(atm.getATMState() == atm.getNoCashState()){
+
+					atm.refill(initialCash);
+					continue;
+
+				}
+
+				atm.insertCard();
+				atm.insertPin(random.nextInt(20) == 0 ? 1111 : 1234);
+				atm.requestCash(20 * (1 + random.nextInt(20)));
+
+				if(random.nextInt(10) == 0){
+
+					atm.ejectCard();
+
+				}
+
+			}
+
+			expected = fleet.fingerprint();
+
+		}
+
+		long writeNanos = System.nanoTime() - start;
+		bytes = Files.size(dir.resolve("atm.log"));
+
+		System.out.printf("%nWrote %,d events for %,d machines in %,d ms (%.1f M events/s), log %,d MB, %.2f bytes per event%n",
+				totalEvents, machineCount, writeNanos / 1_000_000, totalEvents * 1e3 / writeNanos, bytes >> 20, (double) bytes / totalEvents);
+
+		for(boolean useSnapshot : new boolean[] { false, true }){
+
+			start = System.nanoTime();
+
+			try(ATMFleet recovered = new ATMFleet(dir, machineCount, initialCash, Long.MAX_VALUE, useSnapshot)){
+
+				long nanos = System.nanoTime() - start;
+
+				if(recovered.fingerprint() != expected){
+
+					throw new IllegalStateException("Recovered fleet differs from the one that was written");
+
+				}
+
+				System.out.printf("Recovery %-20s %,d ms for %,d events%n", useSnapshot ? "from snapshot + tail:" : "from the full log:",
+						nanos / 1_000_000, recovered.getEvents());
+
+			}
+
+		}
+
+	}
+
+	static void deleteRecursively(Path dir) throws IOException {
+
+		try(java.util.stream.Stream<Path> paths = Files.walk(dir)){
+
+			paths.sorted(java.util.Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+
+		}
+
+	}
+
+}
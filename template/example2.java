@@ -112,14 +112,17 @@ public class ItalianHoagie extends Hoagie{
 
 public abstract class Hoagie {
 	
-	boolean afterFirstCondiment = false;
-	
 	// This is the Template Method
 	// Declare this method final to keep subclasses from
 	// changing the algorithm
 	
+	// afterFirstCondiment is local so every call starts fresh
+	// and the same Hoagie can be made again
+	
 	final void makeSandwich(){
 		
+		boolean afterFirstCondiment = false;
+		
 		cutBun();
 		
 		if(customerWantsMeat()){
@@ -0,0 +1,532 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+// Order-assembly engine for the Hoagies from example2.java. There,
+// makeSandwich() builds one sandwich at a time on the calling thread and
+// prints every step.
+//
+// Here a Hoagie is only a recipe. It keeps its template method and hooks,
+// but it holds no per-order state, so one instance of each recipe serves
+// every order on every thread. Everything that belongs to one sandwich lives
+// in its Order, which every step receives.
+//
+// AssemblyLine has one queue per step of the template (a station) and a pool
+// of workers. A worker takes an order from a station, runs that step, and
+// passes the order to the next station its recipe wants. Different orders
+// are at different stations at the same time, but every order still goes
+// through its steps in template order.
+
+// The steps of makeSandwich(), in order
+
+enum Step {
+
+	CUT_BUN, MEAT, CHEESE, VEGETABLES, CONDIMENTS, WRAP
+
+}
+
+// One customer's sandwich; only one worker touches it at a time
+
+public class Order {
+
+	final long id;
+	final Hoagie recipe;
+
+	private final StringBuilder sandwich = new StringBuilder(160);
+
+	// Set when a step threw; the order skips its remaining steps
+	private Throwable failure;
+
+	public Order(long id, Hoagie recipe){
+
+		this.id = id;
+		this.recipe = recipe;
+
+	}
+
+	// Replaces System.out in the steps. Each step starts a new line.
+
+	void add(String step){
+
+		if(sandwich.length() > 0) { sandwich.append('\n'); }
+
+		sandwich.append(step);
+
+	}
+
+	void add(String label, String[] items){
+
+		if(sandwich.length() > 0) { sandwich.append('\n'); }
+
+		sandwich.append(label);
+
+		for (String item : items){
+
+			sandwich.append(item).append(' ');
+
+		}
+
+	}
+
+	public String getSandwich() { return sandwich.toString(); }
+
+	void fail(Throwable failure) { this.failure = failure; }
+
+	// Null unless a step of the recipe threw
+
+	public Throwable getFailure() { return failure; }
+
+}
+
+// A Template Method Pattern contains a method that provides
+// the steps of the algorithm. It allows subclasses to override
+// some of the methods
+
+public abstract class Hoagie {
+
+	// This is the Template Method. It makes the whole sandwich on the
+	// calling thread; AssemblyLine runs the same steps one by one.
+
+	final void makeSandwich(Order order){
+
+		for(Step step : Step.values()){
+
+			if(wants(step)){
+
+				perform(step, order);
+
+			}
+
+		}
+
+	}
+
+	final boolean wants(Step step){
+
+		switch(step){
+
+			case MEAT: return customerWantsMeat();
+			case CHEESE: return customerWantsCheese();
+			case VEGETABLES: return customerWantsVegetables();
+			case CONDIMENTS: return customerWantsCondiments();
+			default: return true;
+
+		}
+
+	}
+
+	final void perform(Step step, Order order){
+
+		switch(step){
+
+			case CUT_BUN: cutBun(order); break;
+			case MEAT: addMeat(order); break;
+			case CHEESE: addCheese(order); break;
+			case VEGETABLES: addVegetables(order); break;
+			case CONDIMENTS: addCondiments(order); break;
+			case WRAP: wrapTheHoagie(order); break;
+
+		}
+
+	}
+
+	// These methods must be overridden by the extending subclasses.
+	// They may only change the order they are given.
+
+	abstract void addMeat(Order order);
+	abstract void addCheese(Order order);
+	abstract void addVegetables(Order order);
+	abstract void addCondiments(Order order);
+
+	public void cutBun(Order order){
+
+		order.add("The Hoagie is Cut");
+
+	}
+
+	// These are called hooks
+	// If the user wants to override these they can
+
+	boolean customerWantsMeat() { return true; }
+	boolean customerWantsCheese() { return true; }
+	boolean customerWantsVegetables() { return true; }
+	boolean customerWantsCondiments() { return true; }
+
+	public void wrapTheHoagie(Order order){
+
+		order.add("Wrap the Hoagie");
+
+	}
+
+}
+
+public class ItalianHoagie extends Hoagie{
+
+	final String[] meatUsed = { "Salami", "Pepperoni", "Capicola Ham" };
+	final String[] cheeseUsed = { "Provolone" };
+	final String[] veggiesUsed = { "Lettuce", "Tomatoes", "Onions", "Sweet Peppers" };
+	final String[] condimentsUsed = { "Oil", "Vinegar" };
+
+	public void addMeat(Order order){
+
+		order.add("Adding the Meat: ", meatUsed);
+
+	}
+
+	public void addCheese(Order order){
+
+		order.add("Adding the Cheese: ", cheeseUsed);
+
+	}
+
+	public void addVegetables(Order order){
+
+		order.add("Adding the Vegetables: ", veggiesUsed);
+
+	}
+
+	public void addCondiments(Order order){
+
+		order.add("Adding the Condiments: ", condimentsUsed);
+
+	}
+
+}
+
+public class VeggieHoagie extends Hoagie{
+
+	final String[] veggiesUsed = { "Lettuce", "Tomatoes", "Onions", "Sweet Peppers" };
+	final String[] condimentsUsed = { "Oil", "Vinegar" };
+
+	boolean customerWantsMeat() { return false; }
+	boolean customerWantsCheese() { return false; }
+
+	public void addVegetables(Order order){
+
+		order.add("Adding the Vegetables: ", veggiesUsed);
+
+	}
+
+	public void addCondiments(Order order){
+
+		order.add("Adding the Condiments: ", condimentsUsed);
+
+	}
+
+	void addMeat(Order order) {}
+
+	void addCheese(Order order) {}
+
+}
+
+// A custom recipe: the engine needs nothing but the subclass
+
+public class CheeseSteakHoagie extends Hoagie{
+
+	final String[] meatUsed = { "Ribeye" };
+	final String[] cheeseUsed = { "Provolone", "Cheese Whiz" };
+	final String[] veggiesUsed = { "Fried Onions" };
+
+	boolean customerWantsCondiments() { return false; }
+
+	public void addMeat(Order order){
+
+		order.add("Adding the Meat: ", meatUsed);
+
+	}
+
+	public void addCheese(Order order){
+
+		order.add("Adding the Cheese: ", cheeseUsed);
+
+	}
+
+	public void addVegetables(Order order){
+
+		order.add("Adding the Vegetables: ", veggiesUsed);
+
+	}
+
+	void addCondiments(Order order) {}
+
+}
+
+// A recipe whose meat step fails, like a station running out of an ingredient
+
+public class SoldOutHoagie extends CheeseSteakHoagie{
+
+	public void addMeat(Order order){
+
+		throw new IllegalStateException("Out of ribeye");
+
+	}
+
+}
+
+// A recipe with a bug: its first step throws an Error, not an exception
+
+public class JammedSlicerHoagie extends VeggieHoagie{
+
+	public void cutBun(Order order){
+
+		throw new AssertionError("Slicer jammed");
+
+	}
+
+}
+
+public class AssemblyLine implements AutoCloseable {
+
+	private static final Step[] STEPS = Step.values();
+
+	// One queue per step of the template
+	private final List<Queue<Order>> stations = new ArrayList<>();
+
+	// One permit per order waiting at any station, so idle workers sleep
+	private final Semaphore waiting = new Semaphore(0);
+
+	// Bounds the orders in the line; submit() blocks when it is full
+	private final Semaphore capacity;
+
+	private final ExecutorService workers;
+	private final Consumer<Order> onDone;
+	private final AtomicLong[] stepsRun = new AtomicLong[STEPS.length];
+
+	private volatile boolean closed;
+
+	public AssemblyLine(int workerCount, int maxOrdersInLine, Consumer<Order> onDone){
+
+		for(int s = 0; s < STEPS.length; s++){
+
+			stations.add(new ConcurrentLinkedQueue<>());
+			stepsRun[s] = new AtomicLong();
+
+		}
+
+		this.capacity = new Semaphore(maxOrdersInLine);
+		this.onDone = onDone;
+
+		workers = Executors.newFixedThreadPool(workerCount);
+
+		for(int w = 0; w < workerCount; w++){
+
+			workers.execute(this::work);
+
+		}
+
+	}
+
+	public void submit(Order order){
+
+		capacity.acquireUninterruptibly();
+		forward(order, -1);
+
+	}
+
+	// Queues the order at the next station after the given one that its
+	// recipe wants, or hands it back once every step is done. An order whose
+	// step threw is handed back at once with getFailure() set.
+
+	private void forward(Order order, int after){
+
+		for(int s = after + 1; s < STEPS.length; s++){
+
+			if(order.recipe.wants(STEPS[s])){
+
+				stations.get(s).add(order);
+				waiting.release();
+				return;
+
+			}
+
+		}
+
+		finish(order);
+
+	}
+
+	private void finish(Order order){
+
+		capacity.release();
+		onDone.accept(order);
+
+	}
+
+	private void work(){
+
+		while(true){
+
+			waiting.acquireUninterruptibly();
+
+			// Later stations first, so sandwiches get finished before
+			// new ones are started
+
+			for(int s = STEPS.length - 1; s >= 0; s--){
+
+				Order order = stations.get(s).poll();
+
+				if(order != null){
+
+					// A failing step ends only this order, even with an
+					// Error; the worker stays in the pool and the order is
+					// still handed back
+
+					try {
+
+						order.recipe.perform(STEPS[s], order);
+
+					} catch (Throwable e) {
+
+						order.fail(e);
+						finish(order);
+						break;
+
+					}
+
+					stepsRun[s].incrementAndGet();
+					forward(order, s);
+					break;
+
+				}
+
+				if(s == 0 && closed){
+
+					return;
+
+				}
+
+			}
+
+		}
+
+	}
+
+	public long getStepsRun(Step step) { return stepsRun[step.ordinal()].get(); }
+
+	// Call once every submitted order is done
+
+	public void close(){
+
+		closed = true;
+		waiting.release(Integer.MAX_VALUE / 2);
+		workers.shutdown();
+
+	}
+
+}
+
+public class SandwichSculptor {
+
+	public static void main(String[] args) throws InterruptedException {
+
+		Hoagie[] menu = { new ItalianHoagie(), new VeggieHoagie(), new CheeseSteakHoagie() };
+
+		// The same recipe objects make every sandwich. The sold-out order
+		// fails at the meat station and the jammed ones throw an Error at the
+		// first station; they all come back with their failure, and the two
+		// workers keep going and finish the rest.
+
+		Hoagie jammed = new JammedSlicerHoagie();
+		Hoagie[] tickets = { menu[0], new SoldOutHoagie(), jammed, jammed, menu[1], menu[2] };
+
+		CountDownLatch served = new CountDownLatch(tickets.length);
+		List<Order> done = java.util.Collections.synchronizedList(new ArrayList<>());
+
+		AssemblyLine line = new AssemblyLine(2, 16, order -> { done.add(order); served.countDown(); });
+
+		for(int i = 0; i < tickets.length; i++){
+
+			line.submit(new Order(i, tickets[i]));
+
+		}
+
+		served.await();
+		line.close();
+
+		done.sort((a, b) -> Long.compare(a.id, b.id));
+
+		for(Order order : done){
+
+			if(order.getFailure() != null){
+
+				System.out.println("Order " + order.id + " failed: " + order.getFailure().getMessage() + "\n");
+
+			} else {
+
+				System.out.println(order.getSandwich() + "\n");
+
+			}
+
+		}
+
+		// Benchmark: one thread running the template method, then the
+		// assembly line with 1, 2, 4, ... workers up to the number of cores
+
+		int orders = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+		int cores = Runtime.getRuntime().availableProcessors();
+
+		long expected = 0;
+		long start = System.nanoTime();
+
+		for(int i = 0; i < orders; i++){
+
+			Order order = new Order(i, menu[i % menu.length]);
+			order.recipe.makeSandwich(order);
+			expected += order.getSandwich().hashCode();
+
+		}
+
+		System.out.printf("makeSandwich on the calling thread: %,.0f orders/s%n", orders * 1e9 / (System.nanoTime() - start));
+
+		for(int workers = 1; ; workers = Math.min(workers * 2, cores)){
+
+			CountDownLatch finished = new CountDownLatch(orders);
+			AtomicLong checksum = new AtomicLong();
+
+			AssemblyLine bench = new AssemblyLine(workers, 4096, order -> {
+
+				checksum.addAndGet(order.getSandwich().hashCode());
+				finished.countDown();
+
+			});
+
+			start = System.nanoTime();
+
+			for(int i = 0; i < orders; i++){
+
+				bench.submit(new Order(i, menu[i % menu.length]));
+
+			}
+
+			finished.await();
+			long nanos = System.nanoTime() - start;
+			bench.close();
+
+			if(checksum.get() != expected){
+
+				throw new IllegalStateException("Assembly line made different sandwiches");
+
+			}
+
+			System.out.printf("AssemblyLine with %2d workers: %,.0f orders/s (%,d cuts, %,d meat, %,d wraps)%n", workers,
+					orders * 1e9 / nanos, bench.getStepsRun(Step.CUT_BUN), bench.getStepsRun(Step.MEAT), bench.getStepsRun(Step.WRAP));
+
+			if(workers == cores){
+
+				break;
+
+			}
+
+		}
+
+	}
+
+}
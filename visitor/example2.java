@@ -14,15 +14,42 @@ interface Visitor {
 	public double visit(Necessity necessityItem);
 	
 }
-import java.text.DecimalFormat;
 
-// Concrete Visitor Class
+// Prices are kept as a whole number of cents in a long, so taxes are
+// computed with integer math: no DecimalFormat, no String and no parsing,
+// and the helpers are safe to call from any thread
 
-class TaxVisitor implements Visitor {
+final class Cents {
+	
+	private Cents() {
+	}
+	
+	public static long fromDollars(double dollars) {
+		return Math.round(dollars * 100);
+	}
 	
-	// This formats the item prices to 2 decimal places
+	public static double toDollars(long cents) {
+		return cents / 100.0;
+	}
+	
+	// Adds ratePercent percent to the price and rounds to the nearest
+	// cent, with ties going to the even cent (the DecimalFormat default)
+	
+	public static long withTax(long cents, int ratePercent) {
+		long hundredths = cents * (100 + ratePercent);
+		long rounded = Math.floorDiv(hundredths, 100);
+		long remainder = Math.floorMod(hundredths, 100);
+		if (remainder > 50 || (remainder == 50 && (rounded & 1) == 1)) {
+			rounded++;
+		}
+		return rounded;
+	}
 	
-	DecimalFormat df = new DecimalFormat("#.##");
+}
+
+// Concrete Visitor Class
+
+class TaxVisitor implements Visitor {
 
 	// This is created so that each item is sent to the
 	// right version of visit() which is required by the
@@ -35,24 +62,21 @@ class TaxVisitor implements Visitor {
 	// as a liquor item
 	
 	public double visit(Liquor liquorItem) {
-		System.out.println("Liquor Item: Price with Tax");
-		return Double.parseDouble(df.format((liquorItem.getPrice() * .18) + liquorItem.getPrice()));
+		return Cents.toDollars(Cents.withTax(liquorItem.getPriceInCents(), 18));
 	}
 	
 	// Calculates total price based on this being taxed
 	// as a tobacco item
 		
 	public double visit(Tobacco tobaccoItem) {
-		System.out.println("Tobacco Item: Price with Tax");
-		return Double.parseDouble(df.format((tobaccoItem.getPrice() * .32) + tobaccoItem.getPrice()));
+		return Cents.toDollars(Cents.withTax(tobaccoItem.getPriceInCents(), 32));
 	}
 	
 	// Calculates total price based on this being taxed
 	// as a necessity item
 		
 	public double visit(Necessity necessityItem) {
-		System.out.println("Necessity Item: Price with Tax");
-		return Double.parseDouble(df.format(necessityItem.getPrice()));
+		return Cents.toDollars(necessityItem.getPriceInCents());
 	}
 
 }
@@ -74,10 +98,10 @@ interface Visitable {
 
 class Liquor implements Visitable {
 	
-	private double price;
+	private long priceInCents;
 
 	Liquor(double item) {
-		price = item;
+		priceInCents = Cents.fromDollars(item);
 	}
 
 	public double accept(Visitor visitor) {
@@ -85,17 +109,21 @@ class Liquor implements Visitable {
 	}
 
 	public double getPrice() {
-		return price;
+		return Cents.toDollars(priceInCents);
+	}
+
+	public long getPriceInCents() {
+		return priceInCents;
 	}
 	
 }
 
 class Necessity implements Visitable {
 	
-	private double price;
+	private long priceInCents;
 
 	Necessity(double item) {
-		price = item;
+		priceInCents = Cents.fromDollars(item);
 	}
 
 	public double accept(Visitor visitor) {
@@ -103,17 +131,21 @@ class Necessity implements Visitable {
 	}
 
 	public double getPrice() {
-		return price;
+		return Cents.toDollars(priceInCents);
+	}
+
+	public long getPriceInCents() {
+		return priceInCents;
 	}
 	
 }
 
 class Tobacco implements Visitable {
 	
-	private double price;
+	private long priceInCents;
 
 	Tobacco(double item) {
-		price = item;
+		priceInCents = Cents.fromDollars(item);
 	}
 
 	public double accept(Visitor visitor) {
@@ -121,20 +153,18 @@ class Tobacco implements Visitable {
 	}
 
 	public double getPrice() {
-		return price;
+		return Cents.toDollars(priceInCents);
+	}
+
+	public long getPriceInCents() {
+		return priceInCents;
 	}
 	
 }
 
-import java.text.DecimalFormat;
-
 // Concrete Visitor Class
 
 class TaxHolidayVisitor implements Visitor {
-	
-	// This formats the item prices to 2 decimal places
-	
-	DecimalFormat df = new DecimalFormat("#.##");
 
 	// This is created so that each item is sent to the
 	// right version of visit() which is required by the
@@ -147,24 +177,21 @@ class TaxHolidayVisitor implements Visitor {
 	// as a liquor item
 	
 	public double visit(Liquor liquorItem) {
-		System.out.println("Liquor Item: Price with Tax");
-		return Double.parseDouble(df.format((liquorItem.getPrice() * .10) + liquorItem.getPrice()));
+		return Cents.toDollars(Cents.withTax(liquorItem.getPriceInCents(), 10));
 	}
 	
 	// Calculates total price based on this being taxed
 	// as a tobacco item
 		
 	public double visit(Tobacco tobaccoItem) {
-		System.out.println("Tobacco Item: Price with Tax");
-		return Double.parseDouble(df.format((tobaccoItem.getPrice() * .30) + tobaccoItem.getPrice()));
+		return Cents.toDollars(Cents.withTax(tobaccoItem.getPriceInCents(), 30));
 	}
 	
 	// Calculates total price based on this being taxed
 	// as a necessity item
 		
 	public double visit(Necessity necessityItem) {
-		System.out.println("Necessity Item: Price with Tax");
-		return Double.parseDouble(df.format(necessityItem.getPrice()));
+		return Cents.toDollars(necessityItem.getPriceInCents());
 	}
 
 }
@@ -179,15 +206,79 @@ public class VisitorTest {
 		Liquor vodka = new Liquor(11.99);
 		Tobacco cigars = new Tobacco(19.99);
 		
+		System.out.println("Necessity Item: Price with Tax");
 		System.out.println(milk.accept(taxCalc) + "\n");
+		System.out.println("Liquor Item: Price with Tax");
 		System.out.println(vodka.accept(taxCalc) + "\n");
+		System.out.println("Tobacco Item: Price with Tax");
 		System.out.println(cigars.accept(taxCalc) + "\n");
 		
 		System.out.println("TAX HOLIDAY PRICES\n");
 
+		System.out.println("Necessity Item: Price with Tax");
 		System.out.println(milk.accept(taxHolidayCalc) + "\n");
+		System.out.println("Liquor Item: Price with Tax");
 		System.out.println(vodka.accept(taxHolidayCalc) + "\n");
+		System.out.println("Tobacco Item: Price with Tax");
 		System.out.println(cigars.accept(taxHolidayCalc) + "\n");
+		
+		benchmark(args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000);
 
 	}
-}
\ No newline at end of file
+	
+	// Prices 10M random items with the fixed-point visitor and with the old
+	// DecimalFormat round trip, and compares the results item by item.
+	// The only differences allowed are exact half-cent ties, where the old
+	// code rounded whatever binary error the double product happened to have
+	
+	static void benchmark(int count) {
+		
+		java.util.Random random = new java.util.Random(1);
+		Visitable[] items = new Visitable[count];
+		long[] cents = new long[count];
+		int[] ratePercent = { 18, 32, 0 };
+		for (int i = 0; i < count; i++) {
+			cents[i] = random.nextInt(100_000);
+			double price = cents[i] / 100.0;
+			switch (i % 3) {
+				case 0: items[i] = new Liquor(price); break;
+				case 1: items[i] = new Tobacco(price); break;
+				default: items[i] = new Necessity(price); break;
+			}
+		}
+		
+		TaxVisitor taxCalc = new TaxVisitor();
+		double[] prices = new double[count];
+		long start = System.nanoTime();
+		for (int i = 0; i < count; i++) {
+			prices[i] = items[i].accept(taxCalc);
+		}
+		long fixedPoint = System.nanoTime() - start;
+		
+		java.text.DecimalFormat df = new java.text.DecimalFormat("#.##");
+		long mismatches = 0, ties = 0;
+		start = System.nanoTime();
+		for (int i = 0; i < count; i++) {
+			double price = cents[i] / 100.0;
+			double rate = ratePercent[i % 3] / 100.0;
+			double old = Double.parseDouble(df.format(rate == 0 ? price : (price * rate) + price));
+			if (old != prices[i]) {
+				long hundredths = cents[i] * (100 + ratePercent[i % 3]);
+				if (hundredths % 100 == 50) {
+					ties++;
+				} else {
+					mismatches++;
+				}
+			}
+		}
+		long legacy = System.nanoTime() - start;
+		
+		System.out.printf("%,d items: fixed point %.1f M items/s, DecimalFormat %.1f M items/s%n",
+				count, count * 1e3 / fixedPoint, count * 1e3 / legacy);
+		System.out.println("Differences: " + mismatches + " (plus " + ties + " exact half-cent ties now rounded half-even)");
+		if (mismatches != 0) {
+			throw new IllegalStateException("Fixed point rounding differs from DecimalFormat");
+		}
+		
+	}
+}
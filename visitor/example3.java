@@ -0,0 +1,273 @@
+import java.util.Arrays;
+
+// Columnar basket. With one object per item every price goes through two
+// virtual calls (accept, then visit) and each object holds a single number.
+// ColumnarBasket stores the whole basket in two arrays instead: a category
+// byte and a price in cents. Items are grouped by category, so a BatchVisitor
+// gets one call per category with a contiguous run of prices and can price
+// the whole run in a tight loop.
+
+// Prices are whole cents; see TaxVisitor in example2.java. This is a copy of
+// Cents.withTax() from there: every example in this folder is a standalone
+// program in the default package (they already share names such as Visitor
+// and Liquor), so one cannot use a class from another. Keep the two in sync.
+final class Cents {
+
+	private Cents() {
+	}
+
+	public static long withTax(long cents, int ratePercent) {
+		long hundredths = cents * (100 + ratePercent);
+		long rounded = Math.floorDiv(hundredths, 100);
+		long remainder = Math.floorMod(hundredths, 100);
+		if (remainder > 50 || (remainder == 50 && (rounded & 1) == 1)) {
+			rounded++;
+		}
+		return rounded;
+	}
+
+}
+
+// Classic per-object visitor, used as the baseline
+
+interface Visitor {
+
+	public long visit(Liquor liquorItem);
+
+	public long visit(Tobacco tobaccoItem);
+
+	public long visit(Necessity necessityItem);
+
+}
+
+interface Visitable {
+
+	public long accept(Visitor visitor);
+
+}
+
+class Liquor implements Visitable {
+
+	final long priceInCents;
+
+	Liquor(long priceInCents) {
+		this.priceInCents = priceInCents;
+	}
+
+	public long accept(Visitor visitor) {
+		return visitor.visit(this);
+	}
+
+}
+
+class Tobacco implements Visitable {
+
+	final long priceInCents;
+
+	Tobacco(long priceInCents) {
+		this.priceInCents = priceInCents;
+	}
+
+	public long accept(Visitor visitor) {
+		return visitor.visit(this);
+	}
+
+}
+
+class Necessity implements Visitable {
+
+	final long priceInCents;
+
+	Necessity(long priceInCents) {
+		this.priceInCents = priceInCents;
+	}
+
+	public long accept(Visitor visitor) {
+		return visitor.visit(this);
+	}
+
+}
+
+class TaxVisitor implements Visitor {
+
+	public long visit(Liquor liquorItem) {
+		return Cents.withTax(liquorItem.priceInCents, 18);
+	}
+
+	public long visit(Tobacco tobaccoItem) {
+		return Cents.withTax(tobaccoItem.priceInCents, 32);
+	}
+
+	public long visit(Necessity necessityItem) {
+		return necessityItem.priceInCents;
+	}
+
+}
+
+// Batch visitor: one call per category, prices[from .. to) all belong to it.
+// Returns the total of the run in cents.
+
+interface BatchVisitor {
+
+	public long visitLiquor(long[] prices, int from, int to);
+
+	public long visitTobacco(long[] prices, int from, int to);
+
+	public long visitNecessity(long[] prices, int from, int to);
+
+}
+
+class BatchTaxVisitor implements BatchVisitor {
+
+	public long visitLiquor(long[] prices, int from, int to) {
+		return taxed(prices, from, to, 18);
+	}
+
+	public long visitTobacco(long[] prices, int from, int to) {
+		return taxed(prices, from, to, 32);
+	}
+
+	public long visitNecessity(long[] prices, int from, int to) {
+		long total = 0;
+		for (int i = from; i < to; i++) {
+			total += prices[i];
+		}
+		return total;
+	}
+
+	private static long taxed(long[] prices, int from, int to, int ratePercent) {
+		long total = 0;
+		for (int i = from; i < to; i++) {
+			total += Cents.withTax(prices[i], ratePercent);
+		}
+		return total;
+	}
+
+}
+
+class ColumnarBasket {
+
+	static final byte LIQUOR = 0, TOBACCO = 1, NECESSITY = 2;
+
+	private byte[] category;
+	private long[] price;
+	private int size;
+
+	// Start of each category's run once the basket is grouped; runStart[3] == size
+	private final int[] runStart = new int[4];
+	private boolean grouped = true;
+
+	ColumnarBasket(int capacity) {
+		category = new byte[capacity];
+		price = new long[capacity];
+	}
+
+	public void add(byte itemCategory, long priceInCents) {
+		// Checked here; a bad category would otherwise only fail in group()
+		if (itemCategory < LIQUOR || itemCategory > NECESSITY) {
+			throw new IllegalArgumentException("Unknown category " + itemCategory);
+		}
+		if (size == category.length) {
+			int capacity = Math.max(16, size * 2);
+			category = Arrays.copyOf(category, capacity);
+			price = Arrays.copyOf(price, capacity);
+		}
+		category[size] = itemCategory;
+		price[size] = priceInCents;
+		size++;
+		grouped = false;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	// Counting sort by category. Done once after the basket changes, and
+	// stable, so items keep their order inside a category.
+
+	private void group() {
+		int[] next = new int[3];
+		for (int i = 0; i < size; i++) {
+			next[category[i]]++;
+		}
+		runStart[0] = 0;
+		for (int c = 0; c < 3; c++) {
+			runStart[c + 1] = runStart[c] + next[c];
+			next[c] = runStart[c];
+		}
+		byte[] sortedCategory = new byte[category.length];
+		long[] sortedPrice = new long[price.length];
+		for (int i = 0; i < size; i++) {
+			int slot = next[category[i]]++;
+			sortedCategory[slot] = category[i];
+			sortedPrice[slot] = price[i];
+		}
+		category = sortedCategory;
+		price = sortedPrice;
+		grouped = true;
+	}
+
+	public long accept(BatchVisitor visitor) {
+		if (!grouped) {
+			group();
+		}
+		return visitor.visitLiquor(price, runStart[LIQUOR], runStart[LIQUOR + 1])
+				+ visitor.visitTobacco(price, runStart[TOBACCO], runStart[TOBACCO + 1])
+				+ visitor.visitNecessity(price, runStart[NECESSITY], runStart[NECESSITY + 1]);
+	}
+
+}
+
+public class ColumnarVisitorTest {
+	public static void main(String[] args) {
+
+		ColumnarBasket basket = new ColumnarBasket(3);
+		basket.add(ColumnarBasket.NECESSITY, 347);
+		basket.add(ColumnarBasket.LIQUOR, 1199);
+		basket.add(ColumnarBasket.TOBACCO, 1999);
+		try {
+			basket.add((byte) 3, 100);
+			throw new IllegalStateException("Unknown category was accepted");
+		} catch (IllegalArgumentException e) {
+			System.out.println("Rejected: " + e.getMessage());
+		}
+
+		System.out.println("Basket total with tax: " + basket.accept(new BatchTaxVisitor()) / 100.0); // 44.01
+
+		// Benchmark; 100M needs roughly -Xmx8g for the object baseline
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 20_000_000;
+		java.util.Random random = new java.util.Random(1);
+		ColumnarBasket big = new ColumnarBasket(count);
+		Visitable[] objects = new Visitable[count];
+		for (int i = 0; i < count; i++) {
+			long cents = random.nextInt(100_000);
+			switch (random.nextInt(3)) {
+				case 0: big.add(ColumnarBasket.LIQUOR, cents); objects[i] = new Liquor(cents); break;
+				case 1: big.add(ColumnarBasket.TOBACCO, cents); objects[i] = new Tobacco(cents); break;
+				default: big.add(ColumnarBasket.NECESSITY, cents); objects[i] = new Necessity(cents); break;
+			}
+		}
+
+		TaxVisitor perObject = new TaxVisitor();
+		BatchTaxVisitor batch = new BatchTaxVisitor();
+		for (int round = 0; round < 3; round++) {
+			long start = System.nanoTime();
+			long objectTotal = 0;
+			for (Visitable item : objects) {
+				objectTotal += item.accept(perObject);
+			}
+			long objectNanos = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			long columnTotal = big.accept(batch);
+			long columnNanos = System.nanoTime() - start;
+
+			if (objectTotal != columnTotal) {
+				throw new IllegalStateException("Totals differ: " + objectTotal + " vs " + columnTotal);
+			}
+			System.out.printf("round %d: per-object accept %d ms, columnar batch %d ms%s%n", round,
+					objectNanos / 1_000_000, columnNanos / 1_000_000, round == 0 ? " (includes grouping)" : "");
+		}
+
+	}
+}
@@ -0,0 +1,194 @@
+import java.util.Arrays;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Supplier;
+
+// Parallel visitor. ObjectStructure.acceptVisitor() visits the elements one by
+// one on the calling thread. acceptVisitorParallel() splits the element array
+// with its Spliterator, gives every chunk its own visitor instance from a
+// factory, and visits the chunks on a ForkJoinPool. The visitors are then
+// combined with merge(), which each visitor type defines for its own results.
+// Because every chunk has its own visitor, the visitors need no locking.
+
+// Visitor interface
+interface Visitor {
+    void visit(ConcreteElementA element);
+    void visit(ConcreteElementB element);
+}
+
+// A visitor whose partial results can be combined
+interface MergeableVisitor<V extends MergeableVisitor<V>> extends Visitor {
+    // Adds the results of other into this visitor
+    void merge(V other);
+}
+
+// ConcreteVisitor: counts the elements and adds up their weights
+class CountingVisitor implements MergeableVisitor<CountingVisitor> {
+    long countA, countB, totalWeight;
+
+    @Override
+    public void visit(ConcreteElementA element) {
+        countA++;
+        totalWeight += element.weight();
+    }
+
+    @Override
+    public void visit(ConcreteElementB element) {
+        countB++;
+        totalWeight += element.weight();
+    }
+
+    @Override
+    public void merge(CountingVisitor other) {
+        countA += other.countA;
+        countB += other.countB;
+        totalWeight += other.totalWeight;
+    }
+
+    @Override
+    public String toString() {
+        return "A: " + countA + ", B: " + countB + ", total weight: " + totalWeight;
+    }
+}
+
+// Element interface
+interface Element {
+    void accept(Visitor visitor);
+}
+
+// ConcreteElementA
+class ConcreteElementA implements Element {
+    private final int seed;
+
+    ConcreteElementA(int seed) {
+        this.seed = seed;
+    }
+
+    // Some work per element so there is something to parallelize
+    long weight() {
+        long x = seed;
+        for (int i = 0; i < 50; i++) {
+            x = x * 6364136223846793005L + 1442695040888963407L;
+        }
+        return x >>> 60;
+    }
+
+    @Override
+    public void accept(Visitor visitor) {
+        visitor.visit(this);
+    }
+}
+
+// ConcreteElementB
+class ConcreteElementB implements Element {
+    private final int seed;
+
+    ConcreteElementB(int seed) {
+        this.seed = seed;
+    }
+
+    long weight() {
+        long x = ~seed;
+        for (int i = 0; i < 50; i++) {
+            x = x * 6364136223846793005L + 1442695040888963407L;
+        }
+        return x >>> 60;
+    }
+
+    @Override
+    public void accept(Visitor visitor) {
+        visitor.visit(this);
+    }
+}
+
+// ObjectStructure
+class ObjectStructure {
+    private Element[] elements;
+
+    public ObjectStructure(Element... elements) {
+        this.elements = elements;
+    }
+
+    public void acceptVisitor(Visitor visitor) {
+        for (Element element : elements) {
+            element.accept(visitor);
+        }
+    }
+
+    // Visits the elements in parallel and returns the merged visitor.
+    // Chunks smaller than minChunk are not split further.
+    public <V extends MergeableVisitor<V>> V acceptVisitorParallel(Supplier<V> visitors, ForkJoinPool pool, int minChunk) {
+        return pool.invoke(new VisitTask<>(Arrays.spliterator(elements), visitors, minChunk));
+    }
+
+    public <V extends MergeableVisitor<V>> V acceptVisitorParallel(Supplier<V> visitors) {
+        int chunk = Math.max(1024, elements.length / (ForkJoinPool.getCommonPoolParallelism() * 8));
+        return acceptVisitorParallel(visitors, ForkJoinPool.commonPool(), chunk);
+    }
+
+    @SuppressWarnings("serial")
+    private static class VisitTask<V extends MergeableVisitor<V>> extends RecursiveTask<V> {
+        private final Spliterator<Element> chunk;
+        private final Supplier<V> visitors;
+        private final int minChunk;
+
+        VisitTask(Spliterator<Element> chunk, Supplier<V> visitors, int minChunk) {
+            this.chunk = chunk;
+            this.visitors = visitors;
+            this.minChunk = minChunk;
+        }
+
+        @Override
+        protected V compute() {
+            if (chunk.estimateSize() > minChunk) {
+                Spliterator<Element> prefix = chunk.trySplit();
+                if (prefix != null) {
+                    VisitTask<V> left = new VisitTask<>(prefix, visitors, minChunk);
+                    left.fork();
+                    V right = new VisitTask<>(chunk, visitors, minChunk).compute();
+                    V result = left.join();
+                    result.merge(right);
+                    return result;
+                }
+            }
+            V visitor = visitors.get();
+            chunk.forEachRemaining(element -> element.accept(visitor));
+            return visitor;
+        }
+    }
+}
+
+// Client code
+public class ParallelVisitorExample {
+    public static void main(String[] args) {
+        ObjectStructure small = new ObjectStructure(new ConcreteElementA(1), new ConcreteElementB(2), new ConcreteElementA(3));
+        System.out.println(small.acceptVisitorParallel(CountingVisitor::new)); // A: 2, B: 1, ...
+
+        // Benchmark: 10M elements, sequential vs. parallel on every core
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+        Element[] elements = new Element[count];
+        for (int i = 0; i < count; i++) {
+            elements[i] = i % 2 == 0 ? new ConcreteElementA(i) : new ConcreteElementB(i);
+        }
+        ObjectStructure structure = new ObjectStructure(elements);
+
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            CountingVisitor sequential = new CountingVisitor();
+            structure.acceptVisitor(sequential);
+            long sequentialNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            CountingVisitor parallel = structure.acceptVisitorParallel(CountingVisitor::new);
+            long parallelNanos = System.nanoTime() - start;
+
+            if (!sequential.toString().equals(parallel.toString())) {
+                throw new IllegalStateException("Parallel result differs: " + parallel + " vs " + sequential);
+            }
+            System.out.printf("round %d: sequential %d ms, parallel on %d cores %d ms, speedup %.2fx%n", round,
+                    sequentialNanos / 1_000_000, Runtime.getRuntime().availableProcessors(),
+                    parallelNanos / 1_000_000, (double) sequentialNanos / parallelNanos);
+        }
+    }
+}
@@ -0,0 +1,415 @@
+import java.util.Random;
+
+// Visiting without double dispatch. In the classic visitor every element goes
+// through element.accept(visitor), and once there are many element classes
+// that call site is megamorphic: the JIT can no longer inline it and each
+// visit becomes a real virtual call. DispatchPlan classifies each element
+// once into a small type id, groups the elements by type, and then runs one
+// loop per type. Inside each loop the element type is known, so the cast is
+// free, the visit call has a single target and the loop can be inlined.
+//
+// The element and visitor classes below are mechanical, one line per type,
+// so the benchmark can compare 3, 10 and 50 element types.
+
+// Element base class
+abstract class Item {
+    final long value;
+
+    Item(long value) {
+        this.value = value;
+    }
+
+    abstract void accept(ItemVisitor visitor);
+}
+
+// Concrete elements
+final class T00 extends Item { T00(long value) { super(value); } void accept(ItemVisitor v) { v.visit(this); } }
+final class T01 extends Item { T01(long value) { super(value); } void accept(ItemVisitor v) { v.visit(this); } }
+final class T02 extends Item { T02(long value) { super(value); } void accept(ItemVisitor v) { v.visit(this); } }
+final class T03 extends Item { T03(long value) { super(value); } void accept(ItemVisitor v) { v.visit(this); } }
+final class T04 extends Item { T04(long value) { super(value); } void accept(ItemVisitor v) { v.visit(this); } }
+final class T05 extends Item { T05(long value) { super(value); } void accept(ItemVisitor v) { v.visit(this); } }
+final class T06 extends Item { T06(long value) { super(value); } void accept(ItemVisitor v) { v.visit(this); } }
+final class T07 extends Item { T07(long value) { super(value); } void accept(ItemVisitor v) { v.visit(this); } }
+final class T08 extends Item { T08(long value) { super(value); } void accept(ItemVisitor v) { v.visit(this); } }
+final class T09 extends Item { T09(long value) { super(value); } void accept(ItemVisitor v) { v.visit(this); } }
+final class T10 extends Item { T10(long value) { super(value); } void accept(ItemVisitor v) { v.visit(this); } }
+final class T11 extends Item { T11(long value) { super(value); } void accept(ItemVisitor v) { v.visit(this); } }
+final class T12 extends Item { T12(long value) { super(value); } void accept(ItemVisitor v) { v.visit(this); } }
+final class T13 extends Item { T13(long value) { super(value); } void accept(ItemVisitor v) { v.visit(this); } }
+final class T14 extends Item { T14(long value) { super(value); } void accept(ItemVisitor v) { v.visit(this); } }
+final class T15 extends Item { T15(long value) { super(value); } void accept(ItemVisitor v) { v.visit(this); } }
+final class T16 extends Item { T16(long value) { super(value); } void accept(ItemVisitor v) { v.visit(this); } }
+final class T17 extends Item { T17(long value) { super(value); } void accept(ItemVisitor v) { v.visit(this); } }
+final class T18 extends Item { T18(long value) { super(value); } void accept(ItemVisitor v) { v.visit(this); } }
+final class T19 extends Item { T19(long value) { super(value); } void accept(ItemVisitor v) { v.visit(this); } }
+final class T20 extends Item { T20(long value) { super(value); } void accept(ItemVisitor v) { v.visit(this); } }
+final class T21 extends Item { T21(long value) { super(value); } void accept(ItemVisitor v) { v.visit(this); } }
+final class T22 extends Item { T22(long value) { super(value); } void accept(ItemVisitor v) { v.visit(this); } }
+final class T23 extends Item { T23(long value) { super(value); } void accept(ItemVisitor v) { v.visit(this); } }
+final class T24 extends Item { T24(long value) { super(value); } void accept(ItemVisitor v) { v.visit(this); } }
+final class T25 extends Item { T25(long value) { super(value); } void accept(ItemVisitor v) { v.visit(this); } }
+final class T26 extends Item { T26(long value) { super(value); } void accept(ItemVisitor v) { v.visit(this); } }
+final class T27 extends Item { T27(long value) { super(value); } void accept(ItemVisitor v) { v.visit(this); } }
+final class T28 extends Item { T28(long value) { super(value); } void accept(ItemVisitor v) { v.visit(this); } }
+final class T29 extends Item { T29(long value) { super(value); } void accept(ItemVisitor v) { v.visit(this); } }
+final class T30 extends Item { T30(long value) { super(value); } void accept(ItemVisitor v) { v.visit(this); } }
+final class T31 extends Item { T31(long value) { super(value); } void accept(ItemVisitor v) { v.visit(this); } }
+final class T32 extends Item { T32(long value) { super(value); } void accept(ItemVisitor v) { v.visit(this); } }
+final class T33 extends Item { T33(long value) { super(value); } void accept(ItemVisitor v) { v.visit(this); } }
+final class T34 extends Item { T34(long value) { super(value); } void accept(ItemVisitor v) { v.visit(this); } }
+final class T35 extends Item { T35(long value) { super(value); } void accept(ItemVisitor v) { v.visit(this); } }
+final class T36 extends Item { T36(long value) { super(value); } void accept(ItemVisitor v) { v.visit(this); } }
+final class T37 extends Item { T37(long value) { super(value); } void accept(ItemVisitor v) { v.visit(this); } }
+final class T38 extends Item { T38(long value) { super(value); } void accept(ItemVisitor v) { v.visit(this); } }
+final class T39 extends Item { T39(long value) { super(value); } void accept(ItemVisitor v) { v.visit(this); } }
+final class T40 extends Item { T40(long value) { super(value); } void accept(ItemVisitor v) { v.visit(this); } }
+final class T41 extends Item { T41(long value) { super(value); } void accept(ItemVisitor v) { v.visit(this); } }
+final class T42 extends Item { T42(long value) { super(value); } void accept(ItemVisitor v) { v.visit(this); } }
+final class T43 extends Item { T43(long value) { super(value); } void accept(ItemVisitor v) { v.visit(this); } }
+final class T44 extends Item { T44(long value) { super(value); } void accept(ItemVisitor v) { v.visit(this); } }
+final class T45 extends Item { T45(long value) { super(value); } void accept(ItemVisitor v) { v.visit(this); } }
+final class T46 extends Item { T46(long value) { super(value); } void accept(ItemVisitor v) { v.visit(this); } }
+final class T47 extends Item { T47(long value) { super(value); } void accept(ItemVisitor v) { v.visit(this); } }
+final class T48 extends Item { T48(long value) { super(value); } void accept(ItemVisitor v) { v.visit(this); } }
+final class T49 extends Item { T49(long value) { super(value); } void accept(ItemVisitor v) { v.visit(this); } }
+
+// Visitor interface
+interface ItemVisitor {
+    void visit(T00 item);
+    void visit(T01 item);
+    void visit(T02 item);
+    void visit(T03 item);
+    void visit(T04 item);
+    void visit(T05 item);
+    void visit(T06 item);
+    void visit(T07 item);
+    void visit(T08 item);
+    void visit(T09 item);
+    void visit(T10 item);
+    void visit(T11 item);
+    void visit(T12 item);
+    void visit(T13 item);
+    void visit(T14 item);
+    void visit(T15 item);
+    void visit(T16 item);
+    void visit(T17 item);
+    void visit(T18 item);
+    void visit(T19 item);
+    void visit(T20 item);
+    void visit(T21 item);
+    void visit(T22 item);
+    void visit(T23 item);
+    void visit(T24 item);
+    void visit(T25 item);
+    void visit(T26 item);
+    void visit(T27 item);
+    void visit(T28 item);
+    void visit(T29 item);
+    void visit(T30 item);
+    void visit(T31 item);
+    void visit(T32 item);
+    void visit(T33 item);
+    void visit(T34 item);
+    void visit(T35 item);
+    void visit(T36 item);
+    void visit(T37 item);
+    void visit(T38 item);
+    void visit(T39 item);
+    void visit(T40 item);
+    void visit(T41 item);
+    void visit(T42 item);
+    void visit(T43 item);
+    void visit(T44 item);
+    void visit(T45 item);
+    void visit(T46 item);
+    void visit(T47 item);
+    void visit(T48 item);
+    void visit(T49 item);
+}
+
+// ConcreteVisitor: weighted total, the weight depends on the element type
+class SumVisitor implements ItemVisitor {
+    long total;
+
+    public void visit(T00 item) { total += item.value * 1; }
+    public void visit(T01 item) { total += item.value * 2; }
+    public void visit(T02 item) { total += item.value * 3; }
+    public void visit(T03 item) { total += item.value * 4; }
+    public void visit(T04 item) { total += item.value * 5; }
+    public void visit(T05 item) { total += item.value * 6; }
+    public void visit(T06 item) { total += item.value * 7; }
+    public void visit(T07 item) { total += item.value * 8; }
+    public void visit(T08 item) { total += item.value * 9; }
+    public void visit(T09 item) { total += item.value * 10; }
+    public void visit(T10 item) { total += item.value * 11; }
+    public void visit(T11 item) { total += item.value * 12; }
+    public void visit(T12 item) { total += item.value * 13; }
+    public void visit(T13 item) { total += item.value * 14; }
+    public void visit(T14 item) { total += item.value * 15; }
+    public void visit(T15 item) { total += item.value * 16; }
+    public void visit(T16 item) { total += item.value * 17; }
+    public void visit(T17 item) { total += item.value * 18; }
+    public void visit(T18 item) { total += item.value * 19; }
+    public void visit(T19 item) { total += item.value * 20; }
+    public void visit(T20 item) { total += item.value * 21; }
+    public void visit(T21 item) { total += item.value * 22; }
+    public void visit(T22 item) { total += item.value * 23; }
+    public void visit(T23 item) { total += item.value * 24; }
+    public void visit(T24 item) { total += item.value * 25; }
+    public void visit(T25 item) { total += item.value * 26; }
+    public void visit(T26 item) { total += item.value * 27; }
+    public void visit(T27 item) { total += item.value * 28; }
+    public void visit(T28 item) { total += item.value * 29; }
+    public void visit(T29 item) { total += item.value * 30; }
+    public void visit(T30 item) { total += item.value * 31; }
+    public void visit(T31 item) { total += item.value * 32; }
+    public void visit(T32 item) { total += item.value * 33; }
+    public void visit(T33 item) { total += item.value * 34; }
+    public void visit(T34 item) { total += item.value * 35; }
+    public void visit(T35 item) { total += item.value * 36; }
+    public void visit(T36 item) { total += item.value * 37; }
+    public void visit(T37 item) { total += item.value * 38; }
+    public void visit(T38 item) { total += item.value * 39; }
+    public void visit(T39 item) { total += item.value * 40; }
+    public void visit(T40 item) { total += item.value * 41; }
+    public void visit(T41 item) { total += item.value * 42; }
+    public void visit(T42 item) { total += item.value * 43; }
+    public void visit(T43 item) { total += item.value * 44; }
+    public void visit(T44 item) { total += item.value * 45; }
+    public void visit(T45 item) { total += item.value * 46; }
+    public void visit(T46 item) { total += item.value * 47; }
+    public void visit(T47 item) { total += item.value * 48; }
+    public void visit(T48 item) { total += item.value * 49; }
+    public void visit(T49 item) { total += item.value * 50; }
+}
+
+// Maps every element class to a dense type id
+final class ItemTypes {
+    static final Class<?>[] ALL = {
+            T00.class, T01.class, T02.class, T03.class, T04.class, T05.class, T06.class, T07.class,
+            T08.class, T09.class, T10.class, T11.class, T12.class, T13.class, T14.class, T15.class,
+            T16.class, T17.class, T18.class, T19.class, T20.class, T21.class, T22.class, T23.class,
+            T24.class, T25.class, T26.class, T27.class, T28.class, T29.class, T30.class, T31.class,
+            T32.class, T33.class, T34.class, T35.class, T36.class, T37.class, T38.class, T39.class,
+            T40.class, T41.class, T42.class, T43.class, T44.class, T45.class, T46.class, T47.class,
+            T48.class, T49.class
+    };
+
+    private static final ClassValue<Integer> IDS = new ClassValue<>() {
+        @Override
+        protected Integer computeValue(Class<?> type) {
+            for (int id = 0; id < ALL.length; id++) {
+                if (ALL[id] == type) {
+                    return id;
+                }
+            }
+            throw new IllegalArgumentException("Unknown element type " + type.getName());
+        }
+    };
+
+    private ItemTypes() {
+    }
+
+    static int idOf(Item item) {
+        return IDS.get(item.getClass());
+    }
+
+    static Item create(int id, long value) {
+        switch (id) {
+            case 0: return new T00(value);
+            case 1: return new T01(value);
+            case 2: return new T02(value);
+            case 3: return new T03(value);
+            case 4: return new T04(value);
+            case 5: return new T05(value);
+            case 6: return new T06(value);
+            case 7: return new T07(value);
+            case 8: return new T08(value);
+            case 9: return new T09(value);
+            case 10: return new T10(value);
+            case 11: return new T11(value);
+            case 12: return new T12(value);
+            case 13: return new T13(value);
+            case 14: return new T14(value);
+            case 15: return new T15(value);
+            case 16: return new T16(value);
+            case 17: return new T17(value);
+            case 18: return new T18(value);
+            case 19: return new T19(value);
+            case 20: return new T20(value);
+            case 21: return new T21(value);
+            case 22: return new T22(value);
+            case 23: return new T23(value);
+            case 24: return new T24(value);
+            case 25: return new T25(value);
+            case 26: return new T26(value);
+            case 27: return new T27(value);
+            case 28: return new T28(value);
+            case 29: return new T29(value);
+            case 30: return new T30(value);
+            case 31: return new T31(value);
+            case 32: return new T32(value);
+            case 33: return new T33(value);
+            case 34: return new T34(value);
+            case 35: return new T35(value);
+            case 36: return new T36(value);
+            case 37: return new T37(value);
+            case 38: return new T38(value);
+            case 39: return new T39(value);
+            case 40: return new T40(value);
+            case 41: return new T41(value);
+            case 42: return new T42(value);
+            case 43: return new T43(value);
+            case 44: return new T44(value);
+            case 45: return new T45(value);
+            case 46: return new T46(value);
+            case 47: return new T47(value);
+            case 48: return new T48(value);
+            case 49: return new T49(value);
+            default: throw new IllegalArgumentException("Unknown type id " + id);
+        }
+    }
+}
+
+// Elements classified once and grouped by type id inside blocks of BLOCK
+// elements. Grouping gives one tight loop per type; doing it per block keeps
+// the elements a loop touches close together in memory.
+final class DispatchPlan {
+    static final int BLOCK = 4096;
+
+    private final Item[] items;
+    private final int types = ItemTypes.ALL.length;
+    // Elements of type t in block b are items[runStart[b * (types + 1) + t] .. runStart[b * (types + 1) + t + 1])
+    private final int[] runStart;
+
+    DispatchPlan(Item[] elements) {
+        items = new Item[elements.length];
+        int blocks = (elements.length + BLOCK - 1) / BLOCK;
+        runStart = new int[blocks * (types + 1)];
+        int[] typeIds = new int[BLOCK];
+        int[] next = new int[types];
+        for (int b = 0; b < blocks; b++) {
+            int begin = b * BLOCK, end = Math.min(elements.length, begin + BLOCK);
+            java.util.Arrays.fill(next, 0);
+            for (int i = begin; i < end; i++) {
+                typeIds[i - begin] = ItemTypes.idOf(elements[i]);
+                next[typeIds[i - begin]]++;
+            }
+            int base = b * (types + 1);
+            runStart[base] = begin;
+            for (int t = 0; t < types; t++) {
+                runStart[base + t + 1] = runStart[base + t] + next[t];
+                next[t] = runStart[base + t];
+            }
+            for (int i = begin; i < end; i++) {
+                items[next[typeIds[i - begin]]++] = elements[i];
+            }
+        }
+    }
+
+    // For every block, one loop per type. Inside a loop the element type is
+    // known, so each visit call has a single target and can be inlined.
+    void run(ItemVisitor visitor) {
+        for (int base = 0; base < runStart.length; base += types + 1) {
+            for (int type = 0; type < types; type++) {
+                int from = runStart[base + type], to = runStart[base + type + 1];
+                if (from == to) {
+                    continue;
+                }
+                switch (type) {
+                    case 0: for (int j = from; j < to; j++) visitor.visit((T00) items[j]); break;
+                    case 1: for (int j = from; j < to; j++) visitor.visit((T01) items[j]); break;
+                    case 2: for (int j = from; j < to; j++) visitor.visit((T02) items[j]); break;
+                    case 3: for (int j = from; j < to; j++) visitor.visit((T03) items[j]); break;
+                    case 4: for (int j = from; j < to; j++) visitor.visit((T04) items[j]); break;
+                    case 5: for (int j = from; j < to; j++) visitor.visit((T05) items[j]); break;
+                    case 6: for (int j = from; j < to; j++) visitor.visit((T06) items[j]); break;
+                    case 7: for (int j = from; j < to; j++) visitor.visit((T07) items[j]); break;
+                    case 8: for (int j = from; j < to; j++) visitor.visit((T08) items[j]); break;
+                    case 9: for (int j = from; j < to; j++) visitor.visit((T09) items[j]); break;
+                    case 10: for (int j = from; j < to; j++) visitor.visit((T10) items[j]); break;
+                    case 11: for (int j = from; j < to; j++) visitor.visit((T11) items[j]); break;
+                    case 12: for (int j = from; j < to; j++) visitor.visit((T12) items[j]); break;
+                    case 13: for (int j = from; j < to; j++) visitor.visit((T13) items[j]); break;
+                    case 14: for (int j = from; j < to; j++) visitor.visit((T14) items[j]); break;
+                    case 15: for (int j = from; j < to; j++) visitor.visit((T15) items[j]); break;
+                    case 16: for (int j = from; j < to; j++) visitor.visit((T16) items[j]); break;
+                    case 17: for (int j = from; j < to; j++) visitor.visit((T17) items[j]); break;
+                    case 18: for (int j = from; j < to; j++) visitor.visit((T18) items[j]); break;
+                    case 19: for (int j = from; j < to; j++) visitor.visit((T19) items[j]); break;
+                    case 20: for (int j = from; j < to; j++) visitor.visit((T20) items[j]); break;
+                    case 21: for (int j = from; j < to; j++) visitor.visit((T21) items[j]); break;
+                    case 22: for (int j = from; j < to; j++) visitor.visit((T22) items[j]); break;
+                    case 23: for (int j = from; j < to; j++) visitor.visit((T23) items[j]); break;
+                    case 24: for (int j = from; j < to; j++) visitor.visit((T24) items[j]); break;
+                    case 25: for (int j = from; j < to; j++) visitor.visit((T25) items[j]); break;
+                    case 26: for (int j = from; j < to; j++) visitor.visit((T26) items[j]); break;
+                    case 27: for (int j = from; j < to; j++) visitor.visit((T27) items[j]); break;
+                    case 28: for (int j = from; j < to; j++) visitor.visit((T28) items[j]); break;
+                    case 29: for (int j = from; j < to; j++) visitor.visit((T29) items[j]); break;
+                    case 30: for (int j = from; j < to; j++) visitor.visit((T30) items[j]); break;
+                    case 31: for (int j = from; j < to; j++) visitor.visit((T31) items[j]); break;
+                    case 32: for (int j = from; j < to; j++) visitor.visit((T32) items[j]); break;
+                    case 33: for (int j = from; j < to; j++) visitor.visit((T33) items[j]); break;
+                    case 34: for (int j = from; j < to; j++) visitor.visit((T34) items[j]); break;
+                    case 35: for (int j = from; j < to; j++) visitor.visit((T35) items[j]); break;
+                    case 36: for (int j = from; j < to; j++) visitor.visit((T36) items[j]); break;
+                    case 37: for (int j = from; j < to; j++) visitor.visit((T37) items[j]); break;
+                    case 38: for (int j = from; j < to; j++) visitor.visit((T38) items[j]); break;
+                    case 39: for (int j = from; j < to; j++) visitor.visit((T39) items[j]); break;
+                    case 40: for (int j = from; j < to; j++) visitor.visit((T40) items[j]); break;
+                    case 41: for (int j = from; j < to; j++) visitor.visit((T41) items[j]); break;
+                    case 42: for (int j = from; j < to; j++) visitor.visit((T42) items[j]); break;
+                    case 43: for (int j = from; j < to; j++) visitor.visit((T43) items[j]); break;
+                    case 44: for (int j = from; j < to; j++) visitor.visit((T44) items[j]); break;
+                    case 45: for (int j = from; j < to; j++) visitor.visit((T45) items[j]); break;
+                    case 46: for (int j = from; j < to; j++) visitor.visit((T46) items[j]); break;
+                    case 47: for (int j = from; j < to; j++) visitor.visit((T47) items[j]); break;
+                    case 48: for (int j = from; j < to; j++) visitor.visit((T48) items[j]); break;
+                    case 49: for (int j = from; j < to; j++) visitor.visit((T49) items[j]); break;
+                    default: throw new IllegalStateException("Unknown type id " + type);
+                }
+            }
+        }
+    }
+}
+
+// Client code
+public class DispatchTableExample {
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+        for (int types : new int[] { 3, 10, 50 }) {
+            Random random = new Random(types);
+            Item[] items = new Item[count];
+            for (int i = 0; i < count; i++) {
+                items[i] = ItemTypes.create(random.nextInt(types), random.nextInt(1000));
+            }
+
+            long start = System.nanoTime();
+            DispatchPlan plan = new DispatchPlan(items);
+            long classifyNanos = System.nanoTime() - start;
+
+            double classic = Double.MAX_VALUE, table = Double.MAX_VALUE;
+            for (int round = 0; round < 5; round++) {
+                SumVisitor doubleDispatch = new SumVisitor();
+                start = System.nanoTime();
+                for (Item item : items) {
+                    item.accept(doubleDispatch);
+                }
+                classic = Math.min(classic, (System.nanoTime() - start) / (double) count);
+
+                SumVisitor planned = new SumVisitor();
+                start = System.nanoTime();
+                plan.run(planned);
+                table = Math.min(table, (System.nanoTime() - start) / (double) count);
+
+                if (doubleDispatch.total != planned.total) {
+                    throw new IllegalStateException("Totals differ");
+                }
+            }
+            System.out.printf("%2d types: double dispatch %.2f ns/element, dispatch plan %.2f ns/element "
+                    + "(classified once in %d ms)%n", types, classic, table, classifyNanos / 1_000_000);
+        }
+    }
+}